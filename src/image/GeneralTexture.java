@@ -15,6 +15,12 @@ public class GeneralTexture extends Texture {
 	
 	public int width;
 	public int height;
+	
+	/**
+	 * <code>pixels</code> in column-major order, made by
+	 * <code>getColumns()</code>
+	 */
+	private volatile int[] columns;
 
 	/**
 	 * Loads an image at the specified path with the specified width and height as a
@@ -53,4 +59,23 @@ public class GeneralTexture extends Texture {
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Returns <code>pixels</code> in column-major order; see
+	 * {@link Texture#toColumns(int[], int, int)}. Walls are drawn from this. Only
+	 * textures that end up on a wall need it, so it is made the first time it is
+	 * asked for. Two render threads may both make it, but they make the same thing.
+	 *
+	 * @return column-major copy of <code>pixels</code>
+	 */
+	public int[] getColumns() {
+		int[] current = columns;
+		
+		if (current == null) {
+			current = toColumns(pixels, width, height);
+			columns = current;
+		}
+		
+		return current;
+	}
 }
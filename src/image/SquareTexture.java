@@ -18,6 +18,27 @@ public class SquareTexture extends Texture {
 	 */
 	public final int SIZE;
 	private GeneralTexture generalVersion = null;
+	
+	/**
+	 * The texture scaled up to the next power of two size, followed by smaller
+	 * and smaller copies of it, each half the size of the one before, down to 1x1.
+	 * The renderer draws from the copy whose texels are closest to the size of a
+	 * pixel on the screen, so that walls and floors in the distance don't skip
+	 * across the whole texture. Built when the texture is loaded.
+	 */
+	public int[][] mipmaps;
+	
+	/**
+	 * Base 2 logarithm of the size of <code>mipmaps[0]</code>, which is also the
+	 * index of the last mipmap
+	 */
+	public int mipmapSizeLog2;
+	
+	/**
+	 * Every mipmap in column-major order, made by
+	 * <code>getColumnMipmaps()</code>
+	 */
+	private volatile int[][] columnMipmaps;
 
 	/**
 	 * Loads an image at the specified path with the specified size as a
@@ -35,11 +56,13 @@ public class SquareTexture extends Texture {
 		SIZE = _size;
 		pixels = new int[SIZE * SIZE];
 		load();
+		buildMipmaps();
 	}
 
 	public SquareTexture(int[] _pixels, int _size) {
 		pixels = _pixels;
 		SIZE = _size;
+		buildMipmaps();
 	}
 	
 	public SquareTexture(String _path) {
@@ -64,6 +87,190 @@ public class SquareTexture extends Texture {
 		}
 		
 		SIZE = size;
+		buildMipmaps();
+	}
+	
+	/**
+	 * Returns the width and height of a mipmap.
+	 *
+	 * @param level
+	 *            index into <code>mipmaps</code>
+	 * @return size of the mipmap
+	 */
+	public int mipmapSize(int level) {
+		return 1 << (mipmapSizeLog2 - level);
+	}
+	
+	/**
+	 * Returns the mipmap to draw from when one pixel on the screen covers
+	 * <code>texels</code> texels of <code>mipmaps[0]</code>.
+	 *
+	 * @param texels
+	 *            texels of <code>mipmaps[0]</code> per pixel, across or down
+	 * @return index into <code>mipmaps</code>
+	 */
+	public int mipmapLevel(double texels) {
+		if (!(texels >= 2)) {
+			return 0;
+		}
+		
+		// Math.getExponent() is the whole part of the base 2 logarithm
+		return Math.min(Math.getExponent(texels), mipmapSizeLog2);
+	}
+	
+	private void buildMipmaps() {
+		if (SIZE <= 0 || pixels == null) {
+			mipmaps = new int[][] {{0}};
+			mipmapSizeLog2 = 0;
+			return;
+		}
+		
+		// Rounding up keeps every texel of the texture, so walls don't lose detail up
+		// close
+		int size = Integer.highestOneBit(SIZE);
+		
+		if (size < SIZE) {
+			size *= 2;
+		}
+		
+		mipmapSizeLog2 = Integer.numberOfTrailingZeros(size);
+		mipmaps = new int[mipmapSizeLog2 + 1][];
+		
+		if (size == SIZE && pixels.length >= size * size) {
+			mipmaps[0] = pixels;
+		} else {
+			mipmaps[0] = resample(pixels, SIZE, size);
+		}
+		
+		for (int level = 1; level <= mipmapSizeLog2; level++) {
+			mipmaps[level] = halve(mipmaps[level - 1], size >> (level - 1));
+		}
+	}
+	
+	/**
+	 * Returns every mipmap in column-major order; see
+	 * {@link Texture#toColumns(int[], int, int)}. Block walls are drawn from these.
+	 * Only textures that end up on a wall need them, so they are made the first
+	 * time they are asked for. Two render threads may both make them, but they
+	 * make the same thing.
+	 *
+	 * @return column-major copies of <code>mipmaps</code>
+	 */
+	public int[][] getColumnMipmaps() {
+		int[][] current = columnMipmaps;
+		
+		if (current == null) {
+			current = new int[mipmapSizeLog2 + 1][];
+			
+			for (int level = 0; level <= mipmapSizeLog2; level++) {
+				current[level] = toColumns(mipmaps[level], mipmapSize(level), mipmapSize(level));
+			}
+			
+			columnMipmaps = current;
+		}
+		
+		return current;
+	}
+	
+	/**
+	 * Resamples a square image to a different size. Every new pixel is the average
+	 * of the area of the image that it covers, weighted by how much of each old
+	 * pixel falls in that area, so scaling up blends neighbouring pixels instead of
+	 * repeating some of them. As in <code>halve()</code>, a pixel whose area is
+	 * mostly {@link Texture#ALPHA} stays transparent, and transparent pixels are
+	 * left out of the average otherwise. Pixels missing from the end of
+	 * <code>source</code> are black.
+	 */
+	private static int[] resample(int[] source, int sourceSize, int size) {
+		int[] result = new int[size * size];
+		double scale = sourceSize / (double) size;
+		
+		for (int y = 0; y < size; y++) {
+			double top = y * scale;
+			double bottom = top + scale;
+			int lastRow = Math.min((int) Math.ceil(bottom), sourceSize);
+			
+			for (int x = 0; x < size; x++) {
+				double left = x * scale;
+				double right = left + scale;
+				int lastColumn = Math.min((int) Math.ceil(right), sourceSize);
+				double opaque = 0;
+				double transparent = 0;
+				double red = 0;
+				double green = 0;
+				double blue = 0;
+				
+				for (int sourceY = (int) top; sourceY < lastRow; sourceY++) {
+					double coveredY = Math.min(bottom, sourceY + 1) - Math.max(top, sourceY);
+					
+					for (int sourceX = (int) left; sourceX < lastColumn; sourceX++) {
+						double weight = coveredY * (Math.min(right, sourceX + 1) - Math.max(left, sourceX));
+						int index = sourceX + sourceY * sourceSize;
+						int color = index < source.length ? source[index] : 0;
+						
+						if (color == ALPHA) {
+							transparent += weight;
+						} else {
+							opaque += weight;
+							red += ((color >> 16) & 0xFF) * weight;
+							green += ((color >> 8) & 0xFF) * weight;
+							blue += (color & 0xFF) * weight;
+						}
+					}
+				}
+				
+				if (opaque < transparent || opaque <= 0) {
+					result[x + y * size] = ALPHA;
+				} else {
+					int r = (int) (red / opaque + 0.5);
+					int g = (int) (green / opaque + 0.5);
+					int b = (int) (blue / opaque + 0.5);
+					
+					result[x + y * size] = 0xFF000000 | (r << 16) | (g << 8) | b;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Averages every 2x2 block of a square image into one pixel. A block that is
+	 * mostly {@link Texture#ALPHA} stays transparent, and transparent pixels are
+	 * left out of the average otherwise.
+	 */
+	private static int[] halve(int[] source, int sourceSize) {
+		int size = sourceSize / 2;
+		int[] result = new int[size * size];
+		
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				int first = (x * 2) + (y * 2) * sourceSize;
+				int opaque = 0;
+				int red = 0;
+				int green = 0;
+				int blue = 0;
+				
+				for (int i = 0; i < 4; i++) {
+					int color = source[first + (i & 1) + (i >> 1) * sourceSize];
+					
+					if (color != ALPHA) {
+						opaque++;
+						red += (color >> 16) & 0xFF;
+						green += (color >> 8) & 0xFF;
+						blue += color & 0xFF;
+					}
+				}
+				
+				if (opaque < 2) {
+					result[x + y * size] = ALPHA;
+				} else {
+					result[x + y * size] = 0xFF000000 | ((red / opaque) << 16) | ((green / opaque) << 8) | (blue / opaque);
+				}
+			}
+		}
+		
+		return result;
 	}
 
 	public GeneralTexture asGeneralTexture() {
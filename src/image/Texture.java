@@ -33,4 +33,37 @@ public abstract class Texture {
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Copies a row-major image into column-major order, so that
+	 * <code>result[x * height + y]</code> is the pixel at (x, y). Walls are drawn
+	 * one column at a time, and reading a column of this copy touches memory in
+	 * order instead of jumping a whole row per texel. Pixels missing from the end
+	 * of <code>pixels</code> are black.
+	 *
+	 * @param pixels
+	 *            row-major pixels
+	 * @param width
+	 *            width of the image
+	 * @param height
+	 *            height of the image
+	 * @return column-major pixels
+	 */
+	protected static int[] toColumns(int[] pixels, int width, int height) {
+		if (pixels == null || width <= 0 || height <= 0) {
+			return new int[] {0};
+		}
+		
+		int[] columns = new int[width * height];
+		
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int index = x + y * width;
+				
+				columns[x * height + y] = index < pixels.length ? pixels[index] : 0;
+			}
+		}
+		
+		return columns;
+	}
 }
@@ -24,6 +24,15 @@ public final class GameConstants {
 	public static int SCREEN_WIDTH = 1500;
 	public static int SCREEN_HEIGHT = 1000;
 	public static int RAYCAST_THREADS = 4;
+	/*
+	 * Width (in columns) of the tiles handed out to the raycast threads
+	 */
+	public static int RAYCAST_TILE_WIDTH = 8;
+	/*
+	 * Width and height (in pixels) of the screen tiles that true 3D triangles are
+	 * binned into
+	 */
+	public static int TRUE_3D_TILE_SIZE = 32;
 	public static Raycaster.ShadeType SHADE_TYPE = Raycaster.ShadeType.QUADRATIC;
 	public static boolean HIGH_RES_TEXTURES = false;
 
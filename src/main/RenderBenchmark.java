@@ -0,0 +1,195 @@
+package main;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import main.entities.Bean;
+import main.entities.Dwight;
+import main.entities.Healthkit;
+import mapGen.MapGenerator;
+import render.core.Block;
+import render.core.Camera;
+import render.core.FrameBuffer;
+import render.core.Raycaster;
+import render.core.WorldMap;
+import render.math.Vector2;
+
+/**
+ * Renders a fixed scene without a window, so changes to the renderer can be
+ * timed and checked for changes in output. The map is generated from a fixed
+ * seed, a room next to the start position is filled with custom blocks, a
+ * health kit model, and some Dwights and Beans, and the camera turns in place
+ * through a full circle. Each of those frames is written to the output folder
+ * as a PNG. If a reference folder (the output folder of an earlier run) is
+ * given, every frame is compared to the one with the same name there, and the
+ * number of pixels that differ is printed. The camera then keeps turning for a
+ * number of untimed warmup frames and a number of timed frames, and the average
+ * frame time is printed.
+ * <p>
+ * Usage: <code>RenderBenchmark outputFolder [timedFrames] [referenceFolder]</code>
+ *
+ * @author Joe Desmond
+ */
+public class RenderBenchmark {
+	
+	private static final long SEED = 4242;
+	private static final int MAP_SIZE = 200;
+	private static final int WIDTH = 300;
+	private static final int HEIGHT = 300;
+	private static final int THREADS = 4;
+	private static final int SAVED_FRAMES = 16;
+	private static final int WARMUP_FRAMES = 100;
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: RenderBenchmark outputFolder [timedFrames] [referenceFolder]");
+			System.exit(2);
+		}
+		
+		File outputFolder = new File(args[0]);
+		int timedFrames = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+		File referenceFolder = (args.length > 2) ? new File(args[2]) : null;
+		
+		outputFolder.mkdirs();
+		
+		GameConstants.MAP_SEED = SEED;
+		GameConstants.MAX_GOAL_BLOCK_DISTANCE = 80;
+		GameConstants.MIN_GOAL_BLOCK_DISTANCE = 30;
+		
+		MapGenerator generator = new MapGenerator(MAP_SIZE, MAP_SIZE, Block.DwightElements.DWIGHTSPEC);
+		generator.generate();
+		WorldMap world = generator.getFinalWorldMap();
+		Vector2 start = generator.getRandomStartPos();
+		int startX = (int) start.x;
+		int startY = (int) start.y;
+		
+		Camera camera = new Camera().setPos(new Vector2(startX + 0.5f, startY + 0.5f)).setDir(new Vector2(-0.75f, 0)).setPlane(new Vector2(0, 0.5f));
+		Raycaster raycaster = new Raycaster(camera, world, WIDTH, HEIGHT, THREADS);
+		raycaster.setShadeType(Raycaster.ShadeType.QUADRATIC);
+		raycaster.enableTrue3DTextures();
+		
+		buildRoom(world, startX, startY);
+		addEntities(raycaster, camera, startX, startY);
+		
+		FrameBuffer frame = new FrameBuffer(WIDTH, HEIGHT);
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		int changedFrames = 0;
+		
+		for (int i = 0; i < SAVED_FRAMES; i++) {
+			raycaster.renderOffscreen(camera, world, frame);
+			image.setRGB(0, 0, WIDTH, HEIGHT, frame.pixels, 0, WIDTH);
+			
+			String name = "frame" + i + ".png";
+			ImageIO.write(image, "png", new File(outputFolder, name));
+			
+			if (referenceFolder != null) {
+				int changed = countChangedPixels(frame.pixels, new File(referenceFolder, name));
+				
+				System.out.println(name + ": " + changed + " pixels changed");
+				if (changed != 0) {
+					changedFrames++;
+				}
+			}
+			
+			camera.rotateLeft((float) (2.0 * Math.PI / SAVED_FRAMES / camera.getRotationSpeed()));
+		}
+		
+		if (timedFrames > 0) {
+			for (int i = 0; i < WARMUP_FRAMES; i++) {
+				raycaster.renderOffscreen(camera, world, frame);
+				camera.rotateLeft(3);
+			}
+			
+			long startTime = System.nanoTime();
+			for (int i = 0; i < timedFrames; i++) {
+				raycaster.renderOffscreen(camera, world, frame);
+				camera.rotateLeft(3);
+			}
+			long elapsed = System.nanoTime() - startTime;
+			
+			System.out.printf("%d frames, average %.3f ms per frame%n", timedFrames, elapsed / 1e6 / timedFrames);
+		}
+		
+		raycaster.shutdown();
+		
+		if (changedFrames != 0) {
+			System.out.println(changedFrames + " of " + SAVED_FRAMES + " frames differ from the reference");
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Clears the cells around (x,y) and fills them with custom blocks and a health
+	 * kit model, so that every kind of block the renderer draws is in view at
+	 * some point.
+	 */
+	private static void buildRoom(WorldMap world, int x, int y) {
+		for (int cellY = y - 6; cellY <= y + 6; cellY++) {
+			for (int cellX = x - 6; cellX <= x + 6; cellX++) {
+				if (cellX > 0 && cellY > 0 && cellX < MAP_SIZE - 1 && cellY < MAP_SIZE - 1) {
+					world.setBlockAt(cellX, cellY, Block.SPACE);
+				}
+			}
+		}
+		
+		world.setBlockAt(x + 2, y, Block.DwightElements.TABLE_BLOCK);
+		world.setBlockAt(x + 3, y + 1, Block.DwightElements.CHAIR_BLOCK);
+		world.setBlockAt(x + 1, y - 2, Block.DwightElements.PILLAR);
+		world.setBlockAt(x - 2, y + 2, Block.DwightElements.CUBICLE_CROSS);
+		world.setBlockAt(x - 3, y - 1, Block.DwightElements.HORIZONTAL_BARS);
+		world.setBlockAt(x + 4, y - 3, Block.DwightElements.ILLUMINATI_SPIRE_BLOCK);
+		world.setBlockAt(x + 5, y + 3, Block.DwightElements.DWIGHT_BLOCK);
+		world.setBlockAt(x + 1, y + 1, Block.DwightElements.TABLE_BLOCK);
+		
+		Healthkit kit = new Healthkit(new Vector2(x - 0.5f, y - 0.5f));
+		for (int i = 0; i < 7; i++) {
+			kit.animateFrame(3);
+		}
+		world.setBlockAt(x - 1, y - 1, new Block("health kit block").defineAsModel(kit.model()).fakeBlock());
+	}
+	
+	private static void addEntities(Raycaster raycaster, Camera camera, int x, int y) {
+		float[][] offsets = {{-4.5f, 0.2f}, {-3.2f, 2.6f}, {3.4f, -1.5f}, {0.3f, 4.1f}, {-1.8f, -4.2f}, {4.6f, 2.2f}, {-5.1f, -3.3f}, {2.2f, 4.8f}};
+		List<Dwight> dwights = new ArrayList<Dwight>();
+		List<Bean> beans = new ArrayList<Bean>();
+		
+		for (int i = 0; i < offsets.length; i++) {
+			Vector2 pos = new Vector2(x + 0.5f + offsets[i][0], y + 0.5f + offsets[i][1]);
+			
+			if (i % 3 == 2) {
+				beans.add(new Bean(pos, camera));
+			} else {
+				dwights.add(new Dwight(pos, camera));
+			}
+		}
+		
+		raycaster.setEntities(dwights, beans);
+	}
+	
+	private static int countChangedPixels(int[] pixels, File reference) throws IOException {
+		if (!reference.exists()) {
+			return pixels.length;
+		}
+		
+		BufferedImage image = ImageIO.read(reference);
+		if (image.getWidth() != WIDTH || image.getHeight() != HEIGHT) {
+			return pixels.length;
+		}
+		
+		int[] expected = image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+		int changed = 0;
+		
+		for (int i = 0; i < pixels.length; i++) {
+			if ((pixels[i] & 0xFFFFFF) != (expected[i] & 0xFFFFFF)) {
+				changed++;
+			}
+		}
+		
+		return changed;
+	}
+}
@@ -2,6 +2,7 @@ package main.entities;
 
 import main.GameConstants;
 import render.core.true3D.Model;
+import render.core.true3D.ModelInstance;
 import render.core.true3D.Transformer;
 import render.math.Matrix4;
 import render.math.Vector2;
@@ -20,6 +21,13 @@ public class Healthkit extends Pickup {
 	private static final float SINE_B = (float) ((2 * Math.PI) / SINE_PERIOD);
 	private static final float SINE_AMP = MAX_ADDED_HEIGHT - MIN_ADDED_HEIGHT;
 	private static final float SINE_VSHIFT = (MAX_ADDED_HEIGHT - MIN_ADDED_HEIGHT) / 2;
+	private static final float TWO_PI = (float) (2 * Math.PI);
+	
+	/**
+	 * Every Healthkit draws HEALTHKIT_MODEL through its own instance, which is
+	 * turned and raised to animate it
+	 */
+	private final ModelInstance instance;
 	
 	static {		
 		float hKitScaleF = 0.35f;
@@ -33,7 +41,8 @@ public class Healthkit extends Pickup {
 	}
 	
 	public Healthkit(Vector2 _pos) {
-		super(HEALTHKIT_MODEL.transform(Matrix4.IDENTITY), GameConstants.DEFAULT_HEALTHKIT_CYLINDER_RADIUS, _pos);
+		super(new ModelInstance(HEALTHKIT_MODEL), GameConstants.DEFAULT_HEALTHKIT_CYLINDER_RADIUS, _pos);
+		instance = (ModelInstance) model;
 		cylinderRadiusSquared = boundary.radius * boundary.radius;
 	}
 	
@@ -41,16 +50,10 @@ public class Healthkit extends Pickup {
 	public void animateFrame(double delta) {
 		updateSineClock(delta);
 		
-		Matrix4 TRANSLATE_IN = Transformer.createTranslationMatrix(-0.5f, -0.5f, -addedHeight);
-		
 		addedHeight = (float) (SINE_AMP * Math.sin(SINE_B * sineClock) + SINE_VSHIFT);
 		
-		Matrix4 TRANSLATE_OUT = Transformer.createTranslationMatrix(0.5f, 0.5f, addedHeight);
-		
-		Matrix4 rotator = Transformer.createZRotationMatrix(BASE_PSI * (float)delta);
-		
-		Matrix4 transformer = TRANSLATE_IN.multiply(rotator).multiply(TRANSLATE_OUT);
-		model.transformAndApply(transformer);
+		instance.angle = (instance.angle + BASE_PSI * (float)delta) % TWO_PI;
+		instance.height = addedHeight;
 	}
 	
 	private static final float SINE_ADJUSTER = 0.01f;
@@ -0,0 +1,54 @@
+package render.core;
+
+import image.GeneralTexture;
+import render.math.Vector2;
+
+/**
+ * A {@link Wall} of a custom {@link Block} that has been moved into world space
+ * for one cell of a {@link WorldMap}. Block Walls are defined relative to the
+ * cell they are placed in, so the raycaster would otherwise have to translate
+ * every Wall on every ray that enters the cell. The endpoints and length are
+ * worked out once when the Block is placed.
+ *
+ * @author Joe Desmond
+ */
+public class CachedWall {
+	
+	/**
+	 * The Wall in the Block that this was made from
+	 */
+	public final Wall source;
+	public final float x0;
+	public final float y0;
+	public final float x1;
+	public final float y1;
+	public final float length;
+	public final float invLength;
+	public final GeneralTexture texture;
+	public final float xTiles;
+	public final float yTiles;
+	
+	/**
+	 * Moves <code>wall</code> into the cell at (<code>cellX</code>,
+	 * <code>cellY</code>).
+	 *
+	 * @param wall
+	 *            Wall, relative to its cell
+	 * @param cellX
+	 *            x coordinate of the cell
+	 * @param cellY
+	 *            y coordinate of the cell
+	 */
+	public CachedWall(Wall wall, int cellX, int cellY) {
+		source = wall;
+		x0 = wall.v0.x + cellX;
+		y0 = wall.v0.y + cellY;
+		x1 = wall.v1.x + cellX;
+		y1 = wall.v1.y + cellY;
+		length = Vector2.distance(x0, y0, x1, y1);
+		invLength = 1.0f / length;
+		texture = wall.texture;
+		xTiles = wall.xTiles;
+		yTiles = wall.yTiles;
+	}
+}
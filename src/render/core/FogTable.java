@@ -0,0 +1,125 @@
+package render.core;
+
+import render.core.Raycaster.ShadeType;
+import render.math.RenderUtils;
+
+/**
+ * Maps distances to how much a color should be darkened by depth shading. The
+ * curve for a {@link ShadeType} is sampled once into a table, so shading a pixel
+ * costs one lookup and one {@link RenderUtils#darken(int, int)} instead of a
+ * switch and a few float operations.
+ * <p>
+ * Distances are quantized into {@link #RESOLUTION} steps between 0 and the full
+ * fog distance. Each entry is rounded up, which matches the way the old
+ * per-pixel float subtraction rounded.
+ *
+ * @author Joe Desmond
+ */
+public final class FogTable {
+	
+	/**
+	 * Number of table entries between a distance of 0 and the full fog distance
+	 */
+	public static final int RESOLUTION = 4096;
+	
+	public final ShadeType type;
+	public final float fullFogDistance;
+	public final int shadeThreshold;
+	
+	private final int[] darkenBy = new int[RESOLUTION + 1];
+	private final float scale;
+	
+	/**
+	 * Builds a table for the given shading curve.
+	 *
+	 * @param _type
+	 *            shading curve
+	 * @param _fullFogDistance
+	 *            distance at which the curve reaches its darkest value
+	 * @param _shadeThreshold
+	 *            darkest value of the curve, before clamping to 255
+	 */
+	public FogTable(ShadeType _type, float _fullFogDistance, int _shadeThreshold) {
+		type = _type;
+		fullFogDistance = _fullFogDistance;
+		shadeThreshold = _shadeThreshold;
+		scale = RESOLUTION / fullFogDistance;
+		
+		for (int i = 0; i <= RESOLUTION; i++) {
+			float distance = Math.min((i + 0.5f) / scale, fullFogDistance);
+			int amount = (int) Math.ceil(curve(distance));
+			
+			darkenBy[i] = Math.max(0, Math.min(amount, 255));
+		}
+	}
+	
+	private float curve(float distance) {
+		switch (type) {
+			case LINEAR:
+				float normValue = distance / fullFogDistance;
+				
+				return (normValue >= 1 ? 1 : normValue) * shadeThreshold;
+			
+			case QUADRATIC:
+				float _x = distance >= fullFogDistance ? fullFogDistance : distance;
+				float a = shadeThreshold / 100.0f;
+				float b = 2 * fullFogDistance;
+				return (-(a * _x) * (_x - b));
+			
+			case NONE:
+			default:
+				return 0;
+		}
+	}
+	
+	/**
+	 * Returns how much each channel of a color at <code>distance</code> should be
+	 * darkened by, from 0 to 255.
+	 *
+	 * @param distance
+	 *            distance from the camera
+	 * @return amount to subtract from each color channel
+	 */
+	public int darkenBy(float distance) {
+		int index = (int) (distance * scale);
+		
+		return darkenBy[Math.max(0, Math.min(index, RESOLUTION))];
+	}
+	
+	/**
+	 * Returns a distance past which <code>darkenBy()</code> always returns at least
+	 * <code>amount</code>, or positive infinity if the curve never gets that dark.
+	 *
+	 * @param amount
+	 *            amount to subtract from each color channel
+	 * @return distance from the camera
+	 */
+	public float distanceForDarkenBy(int amount) {
+		int first = RESOLUTION + 1;
+		
+		while (first > 0 && darkenBy[first - 1] >= amount) {
+			first--;
+		}
+		
+		if (first > RESOLUTION) {
+			return Float.POSITIVE_INFINITY;
+		}
+		
+		// One entry further out, so that rounding in darkenBy() can't land on the
+		// entry before
+		return (first + 1) / scale;
+	}
+	
+	/**
+	 * Darkens <code>color</code> as if it were seen at <code>distance</code>.
+	 *
+	 * @param distance
+	 *            distance from the camera
+	 * @param color
+	 *            RGB color
+	 * @return shaded RGB color
+	 */
+	public int shade(float distance, int color) {
+		return RenderUtils.darken(color, darkenBy(distance));
+	}
+}
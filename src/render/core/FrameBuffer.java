@@ -0,0 +1,34 @@
+package render.core;
+
+/**
+ * Holds the color and depth output of a frame rendered by a {@link Raycaster}
+ * without a window. Pixels are packed RGB and laid out row by row, so the pixel at
+ * (x,y) is <code>pixels[x + y * width]</code>. <code>depth</code> uses the same
+ * layout and holds the distance from the camera to whatever was drawn at each
+ * pixel ({@link Float#POSITIVE_INFINITY} if nothing was drawn there).
+ *
+ * @author Joe Desmond
+ */
+public class FrameBuffer {
+
+	public final int width;
+	public final int height;
+	public final int[] pixels;
+	public final float[] depth;
+
+	/**
+	 * Creates an empty FrameBuffer that can hold a frame with the given
+	 * dimensions.
+	 *
+	 * @param _width
+	 *            width of the frame, in pixels
+	 * @param _height
+	 *            height of the frame, in pixels
+	 */
+	public FrameBuffer(int _width, int _height) {
+		width = _width;
+		height = _height;
+		pixels = new int[width * height];
+		depth = new float[width * height];
+	}
+}
@@ -5,18 +5,18 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Phaser;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.imageio.ImageIO;
 import javax.swing.JPanel;
@@ -35,6 +35,9 @@ import main.entities.Bean;
 import main.entities.Dwight;
 import render.core.true3D.Frustum;
 import render.core.true3D.Line;
+import render.core.true3D.Mesh;
+import render.core.true3D.Model;
+import render.core.true3D.ModelInstance;
 import render.core.true3D.Transformer;
 import render.light.Side;
 import render.math.Matrix2;
@@ -148,6 +151,13 @@ import render.math.Vector3;
  * construct). When 3D elements are rendered after sprites have been drawn,
  * their depth values are calculated and tested against depth values in the 2D
  * z-buffer to determine visibility.
+ * <br>
+ * The 2D z-buffer is never cleared. Every entry has a stamp that says which
+ * frame it was written in, and an entry with an old stamp is treated as holding
+ * the wall distance of its column, <code>zbuf[x]</code>. Starting a new frame
+ * only means changing the frame stamp, and walls don't have to be written into
+ * the 2D z-buffer at all. Use <code>depthAt()</code> and <code>setDepth()</code>
+ * to read and write it.
  *
  *
  * @author Joe Desmond
@@ -169,6 +179,13 @@ public final class Raycaster extends JPanel {
 	protected Vector2 dir;
 	protected Vector2 plane;
 	protected BufferedImage img;
+	/**
+	 * Images that frames are rendered into. <code>screen</code> is the pixel array
+	 * backing one of these, so nothing has to be copied to present a frame. They
+	 * are used in turn, one per frame.
+	 */
+	protected BufferedImage[] frameImages;
+	protected int frameIndex = 0;
 	protected Graphics2D g2;
 	protected Graphics g;
 	public Camera camera;
@@ -182,23 +199,56 @@ public final class Raycaster extends JPanel {
 	
 	protected int rendererCount;
 	protected ThreadRenderer[] renderers;
-	protected ThreadPoolExecutor executor;
-	protected LatchRef latchref;
+	protected RenderWorker[] workers;
+	protected Phaser frameBarrier;
+	protected int tileWidth;
+	protected int tileCount;
+	protected long[] tileCosts;
 	protected double[] wallDistLUT;
 	protected AtomicBoolean enabled = new AtomicBoolean(true);
 	protected Game parentGame;
 	protected int upDownEnabled = 0;
 	public boolean finished = true;
 	public ShadeType shadeType = ShadeType.QUADRATIC;
+	private FogTable fogTable = new FogTable(shadeType, FULL_FOG_DISTANCE, SHADE_THRESHOLD);
 	private HUD hud;
 	private ViewModel currentViewModel;
 	private int dwightsKilled = 0;
 	private List<Entity> hitEntities = new ArrayList<Entity>();
 	private float closestWallAtCenter = 0;
-	private List<Vector3> modelQueue = Collections.synchronizedList(new ArrayList<Vector3>());
+	/**
+	 * Cells holding model Blocks that were reached by a ray this frame, in cell
+	 * order. Filled by <code>collectModelQueue()</code> after the column pass.
+	 */
+	private final List<Vector3> modelQueue = new ArrayList<Vector3>();
+	private int[] modelQueueCells = new int[16];
 	
 	private float[] zbuf2;
+	/**
+	 * Frame stamp of every entry in <code>zbuf2</code>
+	 */
+	private int[] depthStamps;
+	/**
+	 * Stamp of the current frame. Entries of <code>zbuf2</code> that have a
+	 * different stamp are stale.
+	 */
+	private int depthGeneration = 1;
 	private int[] screen;
+	/**
+	 * What the column pass draws into, stored column by column:
+	 * <code>columnScreen[x * HEIGHT + y]</code>. Each render thread walks down
+	 * its own columns, so its stores are sequential and don't share cache lines
+	 * with another thread's. It is copied into <code>screen</code> right after
+	 * the column pass.
+	 */
+	private int[] columnScreen;
+	private static final int TRANSPOSE_BLOCK_SIZE = 32;
+	/**
+	 * First row of every column that shows the floor. The ceiling shows in rows
+	 * 1 to <code>HEIGHT - floorStarts[x]</code>. Set by the column pass.
+	 */
+	private int[] floorStarts;
+	private static final int FLOOR_ROWS_PER_TASK = 8;
 
 	private boolean true3DTexturesEnabled = true;
 	
@@ -270,14 +320,40 @@ public final class Raycaster extends JPanel {
 		ASPECT = WIDTH / (float) HEIGHT;
 
 		HUD_TRUE_HEIGHT = HEIGHT;
-		
+
 		init();
 	}
-	
+
+	/**
+	 * Creates a <code>Raycaster</code> that is not attached to a Game or a window.
+	 * Frames are rendered with {@link #renderOffscreen(Camera, WorldMap, FrameBuffer)
+	 * renderOffscreen()} instead of <code>paintComponent()</code>, so this can be
+	 * used on machines without a display (servers, benchmarks, etc.). The final
+	 * resolution is the same as the render resolution.
+	 *
+	 * @param _camera
+	 *            Camera used by this Raycaster to determine player position, FoV,
+	 *            and direction
+	 * @param _worldMap
+	 *            Initial map to be rendered by this Raycaster
+	 * @param renderWidth
+	 *            Width of the rendered image
+	 * @param renderHeight
+	 *            Height of the rendered image
+	 * @param threads
+	 *            Threads to be used when rendering
+	 */
+	public Raycaster(Camera _camera, WorldMap _worldMap, int renderWidth, int renderHeight, int threads) {
+		this(null, _camera, _worldMap, renderWidth, renderHeight, renderWidth, renderHeight, threads);
+	}
+
 	private void init() {
 		zbuf = new double[WIDTH];
 		zbuf2 = new float[WIDTH * HEIGHT];
-		screen = new int[WIDTH * HEIGHT];
+		depthStamps = new int[WIDTH * HEIGHT];
+		columnScreen = new int[WIDTH * HEIGHT];
+		floorStarts = new int[WIDTH];
+		createFrameImages();
 		HALF_HEIGHT = HEIGHT / 2;
 		camera.setVerticalMouselookLimit(HEIGHT / 8);
 		
@@ -285,6 +361,7 @@ public final class Raycaster extends JPanel {
 		populateWallDistLUT();
 		generateDimensionLUTs();
 		createThreadPoolRenderers();
+		createModelTiles();
 		createFrustum();
 	}
 	
@@ -299,13 +376,41 @@ public final class Raycaster extends JPanel {
 		plane = camera.plane;
 	}
 	
+	private void createFrameImages() {
+		frameImages = new BufferedImage[2];
+		
+		for (int i = 0; i < frameImages.length; i++) {
+			frameImages[i] = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		}
+		
+		img = frameImages[frameIndex];
+		screen = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+	}
+	
+	/**
+	 * Moves on to the next frame image and points <code>screen</code> at its
+	 * pixels.
+	 */
+	private void nextFrameImage() {
+		frameIndex = (frameIndex + 1) % frameImages.length;
+		img = frameImages[frameIndex];
+		screen = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+	}
+	
 	private void resetImage() {
 		g2 = (Graphics2D) g;
-		g2.setBackground(Color.BLACK);
-		g2.clearRect(0, 0, FINAL_WIDTH, FINAL_HEIGHT);
 		
-		img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
-		Arrays.parallelSetAll(screen, i -> 0);
+		nextFrameImage();
+		resetScreen();
+	}
+
+	/**
+	 * Clears <code>columnScreen</code>. Every pixel of <code>screen</code> is
+	 * copied over from it after the column pass, so <code>screen</code> doesn't
+	 * need to be cleared.
+	 */
+	private void resetScreen() {
+		Arrays.parallelSetAll(columnScreen, i -> 0);
 	}
 	
 	// TODO: Remove this when we have a proper HUD
@@ -382,32 +487,307 @@ public final class Raycaster extends JPanel {
 	}
 	
 	protected void finalizeRender() {
-		BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
-		img.getRaster().setDataElements(0, 0, WIDTH, HEIGHT, screen);
 		g2.drawImage(img, 0, 0, FINAL_WIDTH, FINAL_HEIGHT, null);
 	}
 	
 	/**
-	 * Uses multiple threads to render the scene.
+	 * Uses multiple threads to render the scene. The screen is split into tiles of
+	 * <code>tileWidth</code> columns, and each render thread keeps taking the next
+	 * tile that nobody has taken yet, so a thread that finishes early picks up the
+	 * slack for a thread that is stuck on an expensive part of the screen. The
+	 * walls are drawn into <code>columnScreen</code>, which is then copied into
+	 * <code>screen</code> in bands of rows, also in parallel. The floor and
+	 * ceiling are drawn last, one row at a time.
 	 */
 	private void parallelRender() {
-		latchref.update(rendererCount);
-		for (ThreadRenderer renderer : renderers) {
-			executor.execute(renderer);
+		runInParallel(columnPass, tileCount);
+		runInParallel(transposePass, (HEIGHT + TRANSPOSE_BLOCK_SIZE - 1) / TRANSPOSE_BLOCK_SIZE);
+		runInParallel(floorPass, (HEIGHT - HALF_HEIGHT - 1 + FLOOR_ROWS_PER_TASK - 1) / FLOOR_ROWS_PER_TASK);
+		collectModelQueue();
+	}
+
+	/**
+	 * A unit of work that is split into independent tasks, which are handed out to
+	 * all of the render threads.
+	 *
+	 * @author Joe Desmond
+	 */
+	@FunctionalInterface
+	private interface RenderJob {
+
+		/**
+		 * Runs one task of this job.
+		 *
+		 * @param renderer
+		 *            ThreadRenderer belonging to the thread running the task
+		 * @param task
+		 *            index of the task, from 0 to the number of tasks
+		 */
+		void run(ThreadRenderer renderer, int task);
+	}
+
+	private final RenderJob columnPass = this::renderTile;
+	private final RenderJob transposePass = this::transposeBand;
+	private final RenderJob floorPass = this::renderFloorRows;
+
+	/*
+	 * These are written before the frame barrier is crossed, and the barrier makes
+	 * them visible to the workers.
+	 */
+	private RenderJob currentJob;
+	private int currentTaskCount;
+	private final AtomicInteger nextTask = new AtomicInteger();
+	
+	/*
+	 * The first exception or error thrown by a task in the current job. It's
+	 * caught so that the thread running the task still reaches the frame barrier,
+	 * and rethrown on the thread that started the job.
+	 */
+	private final AtomicReference<Throwable> taskFailure = new AtomicReference<Throwable>();
+
+	/**
+	 * Wakes up the render workers, runs every task of <code>job</code> on them and
+	 * on the calling thread, and returns when all tasks are done. If a task
+	 * throws, the rest of the job still finishes, and the first exception or error
+	 * is then thrown from here.
+	 *
+	 * @param job
+	 *            job to run
+	 * @param taskCount
+	 *            number of tasks in the job
+	 */
+	private void runInParallel(RenderJob job, int taskCount) {
+		currentJob = job;
+		currentTaskCount = taskCount;
+		nextTask.set(0);
+
+		frameBarrier.arriveAndAwaitAdvance();
+		runTasks(renderers[0]);
+		frameBarrier.arriveAndAwaitAdvance();
+		
+		Throwable failure = taskFailure.getAndSet(null);
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+
+	private void runTasks(ThreadRenderer renderer) {
+		RenderJob job = currentJob;
+		int count = currentTaskCount;
+		int task;
+
+		while ((task = nextTask.getAndIncrement()) < count) {
+			try {
+				job.run(renderer, task);
+			} catch (Throwable t) {
+				taskFailure.compareAndSet(null, t);
+			}
+		}
+	}
+
+	private void renderTile(ThreadRenderer renderer, int tile) {
+		long start = System.nanoTime();
+
+		int startX = tile * tileWidth;
+		int endX = Math.min(startX + tileWidth, WIDTH);
+		renderer.render(startX, endX);
+
+		tileCosts[tile] = System.nanoTime() - start;
+	}
+
+	/**
+	 * Copies one band of <code>TRANSPOSE_BLOCK_SIZE</code> rows from
+	 * <code>columnScreen</code> into <code>screen</code>. The band is copied one
+	 * square block at a time, so the columns being read and the rows being
+	 * written both stay in the cache. Floor and ceiling pixels are skipped, since
+	 * the floor pass draws them.
+	 */
+	private void transposeBand(ThreadRenderer renderer, int band) {
+		int startY = band * TRANSPOSE_BLOCK_SIZE;
+		int endY = Math.min(startY + TRANSPOSE_BLOCK_SIZE, HEIGHT);
+		
+		for (int startX = 0; startX < WIDTH; startX += TRANSPOSE_BLOCK_SIZE) {
+			int endX = Math.min(startX + TRANSPOSE_BLOCK_SIZE, WIDTH);
+			
+			for (int x = startX; x < endX; x++) {
+				int column = x * HEIGHT;
+				int floorStart = floorStarts[x];
+				
+				// Row 0 is never floor or ceiling
+				if (startY == 0) {
+					screen[x] = columnScreen[column];
+				}
+				
+				int from = Math.max(startY, Math.max(HEIGHT - floorStart + 1, 1));
+				int to = Math.min(endY, floorStart);
+				
+				for (int y = from; y < to; y++) {
+					screen[x + y * WIDTH] = columnScreen[column + y];
+				}
+			}
+		}
+	}
+	
+	private void renderFloorRows(ThreadRenderer renderer, int task) {
+		int startY = HALF_HEIGHT + 1 + task * FLOOR_ROWS_PER_TASK;
+		int endY = Math.min(startY + FLOOR_ROWS_PER_TASK, HEIGHT);
+		
+		for (int y = startY; y < endY; y++) {
+			renderFloorRow(y);
+		}
+	}
+	
+	/**
+	 * Draws one row of the floor, and the row of the ceiling that mirrors it,
+	 * wherever they aren't hidden by a wall. Every pixel in a row of the floor is
+	 * the same distance from the camera, so the fog is the same for the whole row,
+	 * and the point on the floor moves the same amount from one column to the
+	 * next.
+	 *
+	 * @param y
+	 *            row of the floor, below the horizon
+	 */
+	private void renderFloorRow(int y) {
+		double rowDistance = wallDistLUT[y - HALF_HEIGHT] * FINAL_ASPECT;
+		int floorRow = y * WIDTH;
+		int ceilingRow = (HEIGHT - y) * WIDTH;
+		int amount = fogTable.darkenBy((float) rowDistance);
+		
+		if (amount >= 255) {
+			for (int x = 0; x < WIDTH; x++) {
+				if (y >= floorStarts[x]) {
+					screen[floorRow + x] = 0;
+					screen[ceilingRow + x] = 0;
+				}
+			}
+			return;
 		}
 		
-		try {
-			latchref.latch.await();
-		} catch (Exception e) {
-			e.printStackTrace();
+		// Point on the floor under the left edge of the screen, and how far it moves
+		// per column
+		double leftX = pos.x + rowDistance * (dir.x - plane.x);
+		double leftY = pos.y + rowDistance * (dir.y - plane.y);
+		double stepX = rowDistance * (2.0 * plane.x) / WIDTH;
+		double stepY = rowDistance * (2.0 * plane.y) / WIDTH;
+		
+		// How much of a cell one pixel of this row covers, across the row or from one
+		// row to the next, whichever is more. A texture of 2^n texels per cell then
+		// skips 2^(n + texelShift) texels per pixel, and its mipmap is chosen to bring
+		// that down to about one.
+		double across = rowDistance * 2.0 * Math.sqrt(plane.x * plane.x + plane.y * plane.y) / WIDTH;
+		double down = 2.0 * rowDistance * rowDistance * Math.sqrt(dir.x * dir.x + dir.y * dir.y) / (HEIGHT * FINAL_ASPECT);
+		int texelShift = Math.getExponent(Math.max(across, down));
+		
+		for (int x = 0; x < WIDTH; x++) {
+			if (y < floorStarts[x]) {
+				continue;
+			}
+			
+			double floorX = leftX + x * stepX;
+			double floorY = leftY + x * stepY;
+			int cellX = (int) floorX;
+			int cellY = (int) floorY;
+			
+			// Only possible past a deflected wall, which is drawn farther away than it is
+			if (floorX < 0 || floorY < 0 || cellX >= world.width || cellY >= world.height) {
+				screen[floorRow + x] = 0;
+				screen[ceilingRow + x] = 0;
+				continue;
+			}
+			
+			int cell = cellX + cellY * world.width;
+			SquareTexture floortex = world.texturePalette[world.floorIds[cell]];
+			SquareTexture ceilingtex = world.texturePalette[world.ceilIds[cell]];
+			
+			int floorLevel = mipmapLevel(floortex, texelShift);
+			int floorSizeLog2 = floortex.mipmapSizeLog2 - floorLevel;
+			int floorMask = (1 << floorSizeLog2) - 1;
+			int floorTexX = (int) (floorX * (1 << floorSizeLog2)) & floorMask;
+			int floorTexY = (int) (floorY * (1 << floorSizeLog2)) & floorMask;
+			
+			int ceilLevel = mipmapLevel(ceilingtex, texelShift);
+			int ceilSizeLog2 = ceilingtex.mipmapSizeLog2 - ceilLevel;
+			int ceilTexX;
+			int ceilTexY;
+			if (floorSizeLog2 == ceilSizeLog2) {
+				ceilTexX = floorTexX;
+				ceilTexY = floorTexY;
+			} else {
+				int ceilMask = (1 << ceilSizeLog2) - 1;
+				ceilTexX = (int) (floorX * (1 << ceilSizeLog2)) & ceilMask;
+				ceilTexY = (int) (floorY * (1 << ceilSizeLog2)) & ceilMask;
+			}
+			
+			screen[floorRow + x] = RenderUtils.darken(floortex.mipmaps[floorLevel][(floorTexY << floorSizeLog2) + floorTexX], amount);
+			screen[ceilingRow + x] = RenderUtils.darken(ceilingtex.mipmaps[ceilLevel][(ceilTexY << ceilSizeLog2) + ceilTexX], amount);
+		}
+	}
+	
+	/**
+	 * Returns the mipmap of a floor or ceiling texture to draw a row from, given
+	 * the base 2 logarithm of how much of a cell one pixel of the row covers.
+	 */
+	private static int mipmapLevel(SquareTexture texture, int texelShift) {
+		return Math.max(0, Math.min(texture.mipmapSizeLog2 + texelShift, texture.mipmapSizeLog2));
+	}
+	
+	/**
+	 * A long-lived render thread. Between jobs it waits on the frame barrier
+	 * (which spins briefly before parking), so starting a job costs no executor
+	 * queueing and no allocation.
+	 *
+	 * @author Joe Desmond
+	 */
+	private class RenderWorker extends Thread {
+
+		private final ThreadRenderer renderer;
+
+		RenderWorker(ThreadRenderer _renderer, int id) {
+			super("Render worker " + id);
+			renderer = _renderer;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (frameBarrier.arriveAndAwaitAdvance() >= 0) {
+				runTasks(renderer);
+
+				if (frameBarrier.arriveAndAwaitAdvance() < 0) {
+					return;
+				}
+			}
 		}
 	}
+
+	/**
+	 * Returns the time (in nanoseconds) that each column tile took to render in
+	 * the last frame. Tile <code>i</code> covers the columns from
+	 * <code>i * getTileWidth()</code> up to (but not including)
+	 * <code>(i + 1) * getTileWidth()</code>. Use this to tune
+	 * {@link main.GameConstants#RAYCAST_TILE_WIDTH RAYCAST_TILE_WIDTH}.
+	 *
+	 * @return per-tile render times from the last frame
+	 */
+	public long[] getTileCosts() {
+		return tileCosts.clone();
+	}
+
+	public int getTileWidth() {
+		return tileWidth;
+	}
 	
 	protected void preRender() {
+		world.applyChanges();
 		sprites = world.entities;
 		finished = false;
 		handleMouseInput();
 		getCameraVectors();
+		updateFogTable();
 		resetModelQueue();
 		resetImage();
 	}
@@ -433,6 +813,72 @@ public final class Raycaster extends JPanel {
 		}
 	}
 	
+	/**
+	 * Renders one frame of <code>_worldMap</code> as seen by <code>_camera</code>
+	 * without touching Swing or a Graphics object. The same column pass, sprite
+	 * pass, and true 3D pass used by <code>paintComponent()</code> are run, but
+	 * overlays (HUD, view model, debug text) are not drawn. The finished frame and
+	 * its depth values are copied into <code>target</code>, which must have the
+	 * same dimensions as this Raycaster's render resolution.
+	 * <p>
+	 * The Camera and WorldMap passed in become this Raycaster's Camera and
+	 * WorldMap. This should not be called while this Raycaster is also being
+	 * painted by a RepaintManager.
+	 *
+	 * @param _camera
+	 *            Camera to render from
+	 * @param _worldMap
+	 *            map to render
+	 * @param target
+	 *            FrameBuffer to hold the rendered frame
+	 * @return <code>target</code>
+	 */
+	public FrameBuffer renderOffscreen(Camera _camera, WorldMap _worldMap, FrameBuffer target) {
+		if (target.width != WIDTH || target.height != HEIGHT) {
+			throw new IllegalArgumentException("FrameBuffer is " + target.width + "x" + target.height
+					+ " but this Raycaster renders at " + WIDTH + "x" + HEIGHT + "!");
+		}
+
+		resetCameraAndMap(_camera, _worldMap);
+		world.applyChanges();
+		finished = false;
+		getCameraVectors();
+		updateFogTable();
+		resetModelQueue();
+		resetScreen();
+
+		parallelRender();
+		renderSprites();
+		renderAllVisibleModelsWithoutMatrices();
+
+		System.arraycopy(screen, 0, target.pixels, 0, screen.length);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				target.depth[x + y * WIDTH] = frameDepthAt(x, y);
+			}
+		}
+
+		saveClosestWallAtCenter();
+		resetZBuffer();
+		finished = true;
+
+		return target;
+	}
+
+	/**
+	 * Renders one frame offscreen into a new FrameBuffer.
+	 *
+	 * @see #renderOffscreen(Camera, WorldMap, FrameBuffer)
+	 * @param _camera
+	 *            Camera to render from
+	 * @param _worldMap
+	 *            map to render
+	 * @return a new FrameBuffer holding the frame
+	 */
+	public FrameBuffer renderOffscreen(Camera _camera, WorldMap _worldMap) {
+		return renderOffscreen(_camera, _worldMap, new FrameBuffer(WIDTH, HEIGHT));
+	}
+
 	protected void postRender() {
 		saveClosestWallAtCenter();
 		resetZBuffer();
@@ -451,6 +897,8 @@ public final class Raycaster extends JPanel {
 	private void drawWinScreen() {
 		if (Block.DwightElements.WIN != null) {
 			resetImage();
+			g2.setBackground(Color.BLACK);
+			g2.clearRect(0, 0, FINAL_WIDTH, FINAL_HEIGHT);
 			img = Block.DwightElements.WIN;
 			finalizeRender();
 		}
@@ -459,6 +907,8 @@ public final class Raycaster extends JPanel {
 	private void drawDeathScreen() {
 		if (Block.DwightElements.DEATH != null) {
 			resetImage();
+			g2.setBackground(Color.BLACK);
+			g2.clearRect(0, 0, FINAL_WIDTH, FINAL_HEIGHT);
 			img = Block.DwightElements.DEATH;
 			finalizeRender();
 		}
@@ -469,7 +919,44 @@ public final class Raycaster extends JPanel {
 	}
 	
 	private void resetModelQueue() {
-		modelQueue = new ArrayList<Vector3>();
+		modelQueue.clear();
+	}
+	
+	/**
+	 * Merges the model cells found by every ThreadRenderer during the column pass
+	 * into <code>modelQueue</code>, and clears each ThreadRenderer's list for the
+	 * next frame. The cells are sorted so that the queue doesn't depend on which
+	 * thread got to a cell first.
+	 */
+	private void collectModelQueue() {
+		int count = 0;
+		
+		for (ThreadRenderer renderer : renderers) {
+			int[] cells = renderer.modelCells;
+			
+			for (int i = 0; i < renderer.modelCellCount; i++) {
+				int cell = cells[i];
+				renderer.visitedModelCells[cell >>> 6] &= ~(1L << cell);
+				
+				if (count == modelQueueCells.length) {
+					modelQueueCells = Arrays.copyOf(modelQueueCells, count * 2);
+				}
+				modelQueueCells[count++] = cell;
+			}
+			
+			renderer.modelCellCount = 0;
+		}
+		
+		Arrays.sort(modelQueueCells, 0, count);
+		
+		modelQueue.clear();
+		for (int i = 0; i < count; i++) {
+			int cell = modelQueueCells[i];
+			
+			if (i == 0 || cell != modelQueueCells[i - 1]) {
+				modelQueue.add(new Vector3(cell % world.width, cell / world.width, 0));
+			}
+		}
 	}
 	
 	/**
@@ -489,10 +976,74 @@ public final class Raycaster extends JPanel {
 	private void resetZBuffer() {
 		for (int i = 0; i < WIDTH; i++) {
 			zbuf[i] = Double.POSITIVE_INFINITY;
-			for (int j = 0; j < HEIGHT; j++) {
-				zbuf2[i + j * WIDTH] = Float.POSITIVE_INFINITY;
-			}
 		}
+		
+		depthGeneration++;
+		
+		// Only happens after 2^32 frames, but an old stamp could match again
+		if (depthGeneration == 0) {
+			Arrays.fill(depthStamps, 0);
+			depthGeneration = 1;
+		}
+	}
+	
+	/**
+	 * Returns the distance to whatever has been drawn at (x,y) this frame. If
+	 * nothing has been drawn there other than the wall, this is the distance to the
+	 * wall in that column.
+	 *
+	 * @param x
+	 *            x coordinate of the pixel
+	 * @param y
+	 *            y coordinate of the pixel
+	 * @return depth at (x,y)
+	 */
+	private float depthAt(int x, int y) {
+		int index = x + y * WIDTH;
+		
+		return depthStamps[index] == depthGeneration ? zbuf2[index] : (float) zbuf[x];
+	}
+	
+	/**
+	 * Finds the distance from the camera to whatever was drawn at (x,y) in the
+	 * last frame. This is {@link #depthAt(int, int)} everywhere except the floor
+	 * and ceiling, which don't write depth values while they're drawn, so their
+	 * distance is worked out here from the row they're in.
+	 *
+	 * @param x
+	 *            x coordinate of the pixel
+	 * @param y
+	 *            y coordinate of the pixel
+	 * @return distance from the camera to the point drawn at (x,y), or
+	 *         {@link Float#POSITIVE_INFINITY} if nothing was drawn there
+	 */
+	private float frameDepthAt(int x, int y) {
+		int index = x + y * WIDTH;
+		
+		if (depthStamps[index] == depthGeneration) {
+			return zbuf2[index];
+		}
+		
+		// Row of the floor that this pixel is in, or mirrors if it's on the ceiling
+		int floorRow = (y > HALF_HEIGHT) ? y : HEIGHT - y;
+		
+		if (floorRow > HALF_HEIGHT && floorRow < HEIGHT && floorRow >= floorStarts[x]) {
+			double rowDistance = wallDistLUT[floorRow - HALF_HEIGHT] * FINAL_ASPECT;
+			double cameraX = (2.0 * x) / WIDTH - 1;
+			double rayX = dir.x + plane.x * cameraX;
+			double rayY = dir.y + plane.y * cameraX;
+			
+			return (float) (rowDistance * Math.sqrt(rayX * rayX + rayY * rayY));
+		}
+		
+		return (float) zbuf[x];
+	}
+	
+	private void setDepth(int x, int y, float depth) {
+		int index = x + y * WIDTH;
+		
+		zbuf2[index] = depth;
+		depthStamps[index] = depthGeneration;
 	}
 	
 	private void populateWallDistLUT() {
@@ -523,6 +1074,10 @@ public final class Raycaster extends JPanel {
 	}
 	
 	private void handleMouseInput() {
+		if (parentGame == null) {
+			return;
+		}
+
 		// System.out.println(parentGame.mouse.dx());
 		if (parentGame.mouse.dx() < 0) {
 			camera.rotateLeft(Math.abs(parentGame.mouse.dx()));
@@ -537,28 +1092,75 @@ public final class Raycaster extends JPanel {
 		}
 	}
 	
+	private final List<Entity> spriteBuffer = new ArrayList<Entity>();
+	private ProjectedSprite[] projectedSprites = new ProjectedSprite[0];
+	private int projectedSpriteCount = 0;
+	private final RenderJob spritePass = this::renderSpriteTile;
+	
+	/**
+	 * Where a sprite lands on the screen this frame. Worked out once per sprite
+	 * before the sprite stripes are drawn in parallel.
+	 *
+	 * @author Joe Desmond
+	 */
+	private static class ProjectedSprite {
+		double transformY;
+		float distance;
+		int spriteScreenX;
+		int spriteWidth;
+		int spriteHeight;
+		int drawStartX;
+		int drawEndX;
+		int drawStartY;
+		int drawEndY;
+		SquareTexture texture;
+		int alpha;
+	}
+	
+	/**
+	 * Sorts the sprites from farthest to closest and projects each one onto the
+	 * screen, then lets the render threads draw the sprites column tile by column
+	 * tile. Every thread draws the sprites in the same order, so closer sprites
+	 * still end up on top. Entities at the center of the screen are collected into
+	 * <code>hitEntities</code> while projecting.
+	 */
 	private void renderSprites() {
 		hitEntities = new ArrayList<Entity>();
-		sprites = new ArrayList<Entity>();
+		spriteBuffer.clear();
 		
 		if (dwightList != null) {
-			sprites.addAll(dwightList);
+			for (int i = 0; i < dwightList.size(); i++) {
+				spriteBuffer.add(dwightList.get(i));
+			}
 		}
 		if (beanList != null) {
-			sprites.addAll(beanList);
+			for (int i = 0; i < beanList.size(); i++) {
+				spriteBuffer.add(beanList.get(i));
+			}
 		}
+		sprites = spriteBuffer;
 		
-		for (int i = 0; i < sprites.size(); i++) {
-			sprites.get(i).order = i;
-			sprites.get(i).updateDistance();
+		for (int i = 0; i < spriteBuffer.size(); i++) {
+			spriteBuffer.get(i).order = i;
+			spriteBuffer.get(i).updateDistance();
 		}
 		
-		sprites.sort(null);
+		spriteBuffer.sort(null);
+		
+		if (projectedSprites.length < spriteBuffer.size()) {
+			int oldLength = projectedSprites.length;
+			projectedSprites = Arrays.copyOf(projectedSprites, spriteBuffer.size());
+			
+			for (int i = oldLength; i < projectedSprites.length; i++) {
+				projectedSprites[i] = new ProjectedSprite();
+			}
+		}
+		projectedSpriteCount = 0;
 		
-		for (int i = 0; i < sprites.size(); i++) {
-			// System.out.println(i + " " + sprites.get(i).distance);
+		for (int i = 0; i < spriteBuffer.size(); i++) {
+			// System.out.println(i + " " + spriteBuffer.get(i).distance);
 			
-			Entity active = sprites.get(i);
+			Entity active = spriteBuffer.get(i);
 			
 			Vector2 spriteVector = active.pos;
 			double spriteX = spriteVector.x - pos.x;
@@ -594,30 +1196,81 @@ public final class Raycaster extends JPanel {
 			if (drawStartX < WIDTH / 2 && drawEndX > WIDTH / 2) {
 				hitEntities.add(active);
 			}
+			
+			// Behind the camera or entirely off the screen
+			if (transformY <= 0 || drawStartX >= drawEndX) {
+				continue;
+			}
+			
+			ProjectedSprite projected = projectedSprites[projectedSpriteCount++];
+			projected.transformY = transformY;
+			projected.distance = active.distance;
+			projected.spriteScreenX = spriteScreenX;
+			projected.spriteWidth = spriteWidth;
+			projected.spriteHeight = spriteHeight;
+			projected.drawStartX = drawStartX;
+			projected.drawEndX = drawEndX;
+			projected.drawStartY = drawStartY;
+			projected.drawEndY = drawEndY;
+			projected.texture = active.getActiveTexture();
+			projected.alpha = active.alpha;
+		}
+		
+		if (projectedSpriteCount > 0) {
+			runInParallel(spritePass, tileCount);
+		}
+	}
+	
+	private void renderSpriteTile(ThreadRenderer renderer, int tile) {
+		int tileStartX = tile * tileWidth;
+		int tileEndX = Math.min(tileStartX + tileWidth, WIDTH);
+		
+		for (int i = 0; i < projectedSpriteCount; i++) {
+			ProjectedSprite sprite = projectedSprites[i];
+			
+			int startX = Math.max(sprite.drawStartX, tileStartX);
+			int endX = Math.min(sprite.drawEndX, tileEndX);
+			
+			if (startX < endX) {
+				drawSpriteStripes(sprite, startX, endX);
+			}
+		}
+	}
+	
+	private void drawSpriteStripes(ProjectedSprite sprite, int startX, int endX) {
+		SquareTexture texture = sprite.texture;
+		double transformY = sprite.transformY;
+		int spriteWidth = sprite.spriteWidth;
+		int spriteHeight = sprite.spriteHeight;
+
+		// A sprite with a different transparent color could lose it when the mipmaps
+		// are averaged, so only sprites that use the usual one are drawn smaller
+		int level = 0;
+		if (sprite.alpha == Texture.ALPHA) {
+			level = texture.mipmapLevel((double) texture.mipmapSize(0) / Math.min(spriteWidth, spriteHeight));
+		}
+		
+		int[] pixels = texture.mipmaps[level];
+		int texWidth = texture.mipmapSize(level);
+		int texHeight = texWidth;
+		for (int stripe = startX; stripe < endX; stripe++) {
+			int texX = ((stripe - ((-spriteWidth >> 1) + sprite.spriteScreenX)) << 8) * texWidth / spriteWidth >> 8;
+			if (stripe > 0 && stripe < WIDTH && transformY < zbuf[stripe]) {
 
-			SquareTexture texture = active.getActiveTexture();
-
-			int texWidth = texture.SIZE;
-			int texHeight = texture.SIZE;
-			for (int stripe = drawStartX; stripe < drawEndX; stripe++) {
-				int texX = ((stripe - ((-spriteWidth >> 1) + spriteScreenX)) << 8) * texWidth / spriteWidth >> 8;
-				if (transformY > 0 && stripe > 0 && stripe < WIDTH && transformY < zbuf[stripe]) {
-
-					for (int y = drawStartY; y < drawEndY; y++) {
-						int d = (y << 8) - (HEIGHT << 7) + (spriteHeight << 7);
-						int texY = ((d * texHeight) / spriteHeight) >> 8;
+				for (int y = sprite.drawStartY; y < sprite.drawEndY; y++) {
+					int d = (y << 8) - (HEIGHT << 7) + (spriteHeight << 7);
+					int texY = ((d * texHeight) / spriteHeight) >> 8;
 
-						int index = texX + texWidth * texY;
-						// If the index is out of bounds, black is drawn
-						int color = index < texture.pixels.length && index >= 0 ? texture.pixels[index] : 0;
+					int index = texX + texWidth * texY;
+					// If the index is out of bounds, black is drawn
+					int color = index < pixels.length && index >= 0 ? pixels[index] : 0;
 
-						if (color != active.alpha) {
+					if (color != sprite.alpha) {
 
-							zbuf2[stripe + y * WIDTH] = (float)transformY;
+						setDepth(stripe, y, (float)transformY);
 
-							//img.setRGB(stripe, y, shade(active.distance, color));
-							screen[stripe + y * WIDTH] = shade(active.distance,color);
-						}
+						//img.setRGB(stripe, y, shade(active.distance, color));
+						screen[stripe + y * WIDTH] = shade(sprite.distance,color);
 					}
 				}
 			}
@@ -626,27 +1279,12 @@ public final class Raycaster extends JPanel {
 	
 	/**
 	 * Renders a portion of the image from a given starting point to a given ending
-	 * point. Should be run on a separate Thread.
+	 * point. Holds the state of the ray being cast, so each render thread gets its
+	 * own ThreadRenderer.
 	 *
 	 * @author Joe Desmond
 	 */
-	private class ThreadRenderer implements Runnable {
-
-		int startX;
-		int endX;
-		int id;
-		
-		ThreadRenderer(int _startX, int _endX, int _id) {
-			startX = _startX;
-			endX = _endX;
-			id = _id;
-		}
-		
-		@Override
-		public void run() {
-			this.render();
-			latchref.latch.countDown();
-		}
+	private class ThreadRenderer {
 		
 		private double adjMapX;
 		private double adjMapY;
@@ -658,24 +1296,46 @@ public final class Raycaster extends JPanel {
 		private double rdiry;
 		private int mapX;
 		private int mapY;
-		private Vector2 customHit;
+		/**
+		 * True if the ray stopped at a Wall in a custom Block. The point where it hit
+		 * is (<code>customHitX</code>, <code>customHitY</code>), and the Wall it hit
+		 * is <code>hitWall</code>.
+		 */
+		private boolean customHit;
+		private float customHitX;
+		private float customHitY;
 		private int drawStart;
 		private int drawEnd;
 		private int trueDrawStart;
 		private int lineHeight;
 		private double perpWallDist = 0;
 		private Block block;
-		private Wall hitWall;
+		private CachedWall hitWall;
+		
+		/*
+		 * Model cells that this ThreadRenderer's rays reached this frame, as
+		 * (x + y * world width). The bits stop a cell from being listed twice without
+		 * taking a lock; both are cleared by collectModelQueue().
+		 */
+		private long[] visitedModelCells = new long[0];
+		private int[] modelCells = new int[16];
+		private int modelCellCount = 0;
 		private double wallX;
 		private Side sideHit;
+		private final Rasterizer2 rasterizer = new Rasterizer2();
 		
 		/**
 		 * Uses 2D raycasting. It casts a ray into the scene for every x-value from
 		 * <code>startX</code> to <code>endX</code>, checking for intersections with
 		 * "renderable" objects in the World using digital differential analysis (DDA).
 		 * The speed of this algorithm does not vary with the size of the world.
+		 *
+		 * @param startX
+		 *            first column to render
+		 * @param endX
+		 *            column after the last column to render
 		 */
-		private void render() {
+		private void render(int startX, int endX) {
 			for (int x = startX; x < endX; x++) {
 				block = null;
 
@@ -715,9 +1375,7 @@ public final class Raycaster extends JPanel {
 					stepY = 1;
 					sideDistY = (mapY + 1.0 - pos.y) * deltaDistY;
 				}
-				Vector2 currentLoc;
-				customHit = null;
-				Vector2 tested = null;
+				customHit = false;
 				hitWall = null;
 				
 				// Modified DDA that switches to slower ray/line segment intersection tests when
@@ -732,52 +1390,57 @@ public final class Raycaster extends JPanel {
 						mapY += stepY;
 						side = true;
 					}
-					block = world.getBlockAt(mapX, mapY);
-					if (block == Block.DEFLECTOR) {
+					int cell = mapX + mapY * world.width;
+					int flags = world.blockFlags[cell];
+					
+					if ((flags & WorldMap.VISIBLE) != 0) {
+						block = world.blockPalette[world.blockIds[cell]];
+					}
+					
+					if ((flags & WorldMap.DEFLECTOR) != 0) {
 						/*
 						 * if (!deflected) { double temp = deltaDistX;
 						 * 
 						 * deltaDistX = deltaDistY; deltaDistY = temp; deflected = true; }
 						 */
 						deflected = true;
-					} else if (block.isVisible() && (block.getProximity() == -1
-							|| block.getProximity() > Vector2.distance(pos, new Vector2(mapX, mapY)))) {
-						if (block.isCustom()) {
-							currentLoc = new Vector2(mapX, mapY);
-							Vector2 rayDirection = new Vector2((float) rdirx + pos.x, (float) rdiry + pos.y);
-							for (Wall l : block.walls) {
-								Wall testing = new Wall(l.v0.add(currentLoc), l.v1.add(currentLoc)).tile(l.xTiles,
-										l.yTiles);
-								tested = RenderUtils.rayHitSegment(pos, rayDirection, testing);
-
-								if (tested != null) {
+					} else if ((flags & WorldMap.VISIBLE) != 0 && (block.getProximity() == -1
+							|| block.getProximity() > Vector2.distance(pos.x, pos.y, mapX, mapY))) {
+						if ((flags & WorldMap.CUSTOM) != 0) {
+							float rayDirX = ((float) rdirx + pos.x) - pos.x;
+							float rayDirY = ((float) rdiry + pos.y) - pos.y;
+							for (CachedWall l : world.getWallsAt(mapX, mapY)) {
+								float t = RenderUtils.rayHitSegment(pos.x, pos.y, rayDirX, rayDirY, l.x0, l.y0, l.x1, l.y1);
+
+								if (t == t) {
+									float testedX = pos.x + (t * rayDirX);
+									float testedY = pos.y + (t * rayDirY);
+									
 									double tempDist;
 									if (!side) {
-										tempDist = ((tested.x - pos.x + (1 - Math.abs(stepX)) / 2)) / rdirx;
+										tempDist = ((testedX - pos.x + (1 - Math.abs(stepX)) / 2)) / rdirx;
 									} else {
-										tempDist = ((tested.y - pos.y + (1 - Math.abs(stepY)) / 2)) / rdiry;
+										tempDist = ((testedY - pos.y + (1 - Math.abs(stepY)) / 2)) / rdiry;
 									}
 									
-									float wallLength = testing.length;
-									float normDist = Vector2.distance(testing.v0, tested) / wallLength;
+									float normDist = Vector2.distance(l.x0, l.y0, testedX, testedY) * l.invLength;
 									int textureDist = (int) (normDist * l.texture.width);
 									
 									if (tempDist < zbuf[x] && l.texture.pixels[textureDist] != Texture.ALPHA) {
 										zbuf[x] = tempDist;
-										testing.texture = l.texture;
-										hitWall = testing;
+										hitWall = l;
 										
-										customHit = tested;
+										customHit = true;
+										customHitX = testedX;
+										customHitY = testedY;
 									}
 								}
 							}
-							if (customHit != null) {
+							if (customHit) {
 								break dda;
 							}
-						} else if (block.isModel()) {
-							Vector3 location = new Vector3(mapX, mapY, 0);
-							
-							tryUpdateModelQueue(location);
+						} else if ((flags & WorldMap.MODEL) != 0) {
+							tryUpdateModelQueue(mapX, mapY);
 							
 						} else {
 							determineSideHit(stepX, stepY);
@@ -786,9 +1449,9 @@ public final class Raycaster extends JPanel {
 					}
 				}
 
-				if (customHit != null) {
-					adjMapX = customHit.x;
-					adjMapY = customHit.y;
+				if (customHit) {
+					adjMapX = customHitX;
+					adjMapY = customHitY;
 					adjStepX = Math.abs(stepX);
 					adjStepY = Math.abs(stepY);
 				} else {
@@ -826,7 +1489,7 @@ public final class Raycaster extends JPanel {
 					drawEnd = HEIGHT - 1;
 				}
 
-				if (customHit == null) {
+				if (!customHit) {
 					textureBlock(x);
 				} else {
 					textureCustomBlock(x);
@@ -835,21 +1498,32 @@ public final class Raycaster extends JPanel {
 				// img.setRGB(x, drawStart, 0xFFFF0000);
 				// img.setRGB(x, drawEnd, 0xFFFF0000);
 
-				textureFloorAndCeiling(x);
+				// The floor pass draws the floor from here down, and the ceiling above
+				floorStarts[x] = (drawEnd < 0 ? HEIGHT : drawEnd) + 1;
 			}
 		}
 		
-		private void tryUpdateModelQueue(Vector3 location) {
+		private void tryUpdateModelQueue(int cellX, int cellY) {
+			int cell = cellX + cellY * world.width;
+			int word = cell >>> 6;
 			
-			synchronized (modelQueue) {
-				for (int i = 0; i < modelQueue.size(); i++) {
-					if (modelQueue.get(i).equals(location)) {
-						return;
-					}
-				}
-
-				modelQueue.add(location);
+			if (word >= visitedModelCells.length) {
+				int words = (world.width * world.height + 63) >>> 6;
+				visitedModelCells = Arrays.copyOf(visitedModelCells, Math.max(word + 1, words));
+			}
+			
+			long bit = 1L << cell;
+			
+			if ((visitedModelCells[word] & bit) != 0) {
+				return;
+			}
+			
+			visitedModelCells[word] |= bit;
+			
+			if (modelCellCount == modelCells.length) {
+				modelCells = Arrays.copyOf(modelCells, modelCellCount * 2);
 			}
+			modelCells[modelCellCount++] = cell;
 		}
 		
 		private void determineSideHit(int stepX, int stepY) {
@@ -873,217 +1547,142 @@ public final class Raycaster extends JPanel {
 			 * Used to determine EXACTLY where the ray hit and set both z-buffers properly
 			 * so that true 3D rendering works correctly
 			 */
-			Vector2 exact;
+			float exactX;
+			float exactY;
 
 			if (side) {
 				wallX = (pos.x + ((adjMapY - pos.y + (1 - adjStepY) / 2) / rdiry) * rdirx);
 				
+				exactX = (float) wallX;
 				if (sideHit == Side.POSY) {
-					exact = new Vector2((float) wallX, mapY + 1);
+					exactY = mapY + 1;
 				} else {
-					exact = new Vector2((float) wallX, mapY);
+					exactY = mapY;
 				}
 
 			} else {
 				wallX = (pos.y + ((adjMapX - pos.x + (1 - adjStepX) / 2) / rdirx) * rdiry);
 
+				exactY = (float) wallX;
 				if (sideHit == Side.POSX) {
-					exact = new Vector2(mapX + 1, (float) wallX);
+					exactX = mapX + 1;
 				} else {
-					exact = new Vector2(mapX, (float) wallX);
+					exactX = mapX;
 				}
 			}
 
-			float trueDistance = Vector2.distance(pos, exact);
+			float trueDistance = Vector2.distance(pos.x, pos.y, exactX, exactY);
 
 			zbuf[x] = trueDistance;
-			
-			for (int y1 = 0; y1 < HEIGHT; y1++) {
-				zbuf2[x + y1 * WIDTH] = trueDistance;
-			}
 
 			wallX -= Math.floor(wallX);
 
-			int texX;
-
-			if (side) {
-				texX = (int) (wallX * block.sideTexture.SIZE);
-				texX = (int) ((texX * block.sideXTiles) % block.sideTexture.SIZE);
-			} else {
-				texX = (int) (wallX * block.frontTexture.SIZE);
-				texX = (int) ((texX * block.frontXTiles) % block.frontTexture.SIZE);
-			}
-
-			if ((!side && rdirx > 0)) {
-				texX = block.frontTexture.SIZE - texX - 1;
-			} else if (side && rdiry < 0) {
-				texX = block.sideTexture.SIZE - texX - 1;
-			}
-
-			for (int y = drawStart; y < drawEnd; y++) {
-				int texY;
-
-				if (side) {
-					texY = ((((y << 1) - HEIGHT + lineHeight) * block.sideTexture.SIZE) / lineHeight) >> 1;
-					texY = (int) ((texY * block.sideYTiles) % block.sideTexture.SIZE);
-				} else {
-					texY = ((((y << 1) - HEIGHT + lineHeight) * block.frontTexture.SIZE) / lineHeight) >> 1;
-					texY = (int) ((texY * block.frontYTiles) % block.frontTexture.SIZE);
-				}
-
-				int color;
-				if (!side && (texX + (texY * block.frontTexture.SIZE)) < block.frontTexture.pixels.length
-						&& (texX + (texY * block.frontTexture.SIZE)) >= 0) {
-					color = block.frontTexture.pixels[texX + (texY * block.frontTexture.SIZE)];
-				} else if ((texX + (texY * block.sideTexture.SIZE)) < block.sideTexture.pixels.length
-						&& (texX + (texY * block.sideTexture.SIZE)) >= 0) {
-					color = (block.sideTexture.pixels[texX + (texY * block.sideTexture.SIZE)]);
-				} else {
-					color = 0;
-				}
+			SquareTexture texture = side ? block.sideTexture : block.frontTexture;
+			float xTiles = side ? block.sideXTiles : block.frontXTiles;
+			float yTiles = side ? block.sideYTiles : block.frontYTiles;
+			
+			// Texels of the full size texture that one pixel of this column covers
+			int level = texture.mipmapLevel(texture.mipmapSize(0) * yTiles / lineHeight);
+			int size = texture.mipmapSize(level);
+			
+			int texX = (int) (wallX * size);
+			texX = (int) ((texX * xTiles) % size);
 
-				//img.setRGB(x, y, shade(trueDistance, color));
-				screen[x + y * WIDTH] = shade(trueDistance,color);
+			if ((!side && rdirx > 0) || (side && rdiry < 0)) {
+				texX = size - texX - 1;
 			}
+			
+			drawWallColumn(x, texture.getColumnMipmaps()[level], texX, size, yTiles, (HEIGHT - lineHeight) / 2.0,
+					trueDistance);
 		}
 		
 		private void textureCustomBlock(int x) {
-			wallX = hitWall.getNorm(customHit);
+			wallX = Vector2.distance(customHitX, customHitY, hitWall.x0, hitWall.y0) * hitWall.invLength;
 
 			wallX -= Math.floor(wallX);
 
-			float trueDistance = Vector2.distance(pos, customHit);
+			float trueDistance = Vector2.distance(pos.x, pos.y, customHitX, customHitY);
 
 			zbuf[x] = trueDistance;
-			
-			for (int y1 = 0; y1 < HEIGHT; y1++) {
-				zbuf2[x + y1 * WIDTH] = trueDistance;
-			}
 
 			int texX;
 			GeneralTexture texture = hitWall.texture;
 
 			texX = (int) (texture.width * wallX * hitWall.xTiles) % texture.width;
-
-			for (int y = drawStart; y < drawEnd; y++) {
-				int texY;
-				texY = (int) ((((y - trueDrawStart) / (float) lineHeight) * texture.height) * hitWall.yTiles)
-						% texture.height;
-
-				int color = 0;
-
-				int index = (texX + texY * texture.width);
-
-				if (index >= 0 && index < texture.pixels.length) {
-					color = texture.pixels[index];
-				}
-
-				//img.setRGB(x, y, shade((float) perpWallDist, color));
-				screen[x + y * WIDTH] = shade((float)perpWallDist,color);
-			}
+			
+			drawWallColumn(x, texture.getColumns(), texX, texture.height, hitWall.yTiles, trueDrawStart,
+					(float) perpWallDist);
 		}
 		
-		private void textureFloorAndCeiling(int x) {
-			double floorXWall;
-			double floorYWall;
-
-			if (customHit != null) {
-				floorXWall = adjMapX;
-				floorYWall = adjMapY;
-			} else if (!side && rdirx > 0) {
-				floorXWall = mapX;
-				floorYWall = mapY + wallX;
-			} else if (!side && rdirx < 0) {
-				floorXWall = mapX + 1.0;
-				floorYWall = mapY + wallX;
-			} else if (side && rdiry > 0) {
-				floorXWall = mapX + wallX;
-				floorYWall = mapY;
-			} else {
-				floorXWall = mapX + wallX;
-				floorYWall = mapY + 1.0;
-			}
-
-			double currentDist;
-
-			if (drawEnd < 0) {
-				drawEnd = HEIGHT;
+		/**
+		 * Draws rows <code>drawStart</code> to <code>drawEnd</code> of a wall column
+		 * from one column of a texture. The whole column is the same distance away, so
+		 * the fog is looked up once, and every row moves the same distance down the
+		 * texture. That distance is worked out once as a 16.16 fixed point number, so
+		 * each pixel only takes an add, a texture load, a shade and a store. Textures
+		 * with a power of two height wrap with a mask. The texture is column-major, so
+		 * the texels of one column are next to each other in memory.
+		 *
+		 * @param x
+		 *            column to draw
+		 * @param columns
+		 *            texture pixels in column-major order
+		 * @param texX
+		 *            column of the texture to draw
+		 * @param height
+		 *            height of the texture
+		 * @param yTiles
+		 *            number of times the texture repeats from the top of the wall to
+		 *            the bottom
+		 * @param wallTop
+		 *            row where the top of the texture is, which can be above the
+		 *            screen
+		 * @param distance
+		 *            distance to the wall, for the fog
+		 */
+		private void drawWallColumn(int x, int[] columns, int texX, int height, float yTiles, double wallTop,
+				float distance) {
+			int column = x * HEIGHT;
+			int texColumn = texX * height;
+			int amount = fogTable.darkenBy(distance);
+			
+			if (amount >= 255) {
+				Arrays.fill(columnScreen, column + drawStart, column + Math.max(drawStart, drawEnd), 0);
+				return;
 			}
-
-			SquareTexture floortex;
-			SquareTexture ceilingtex;
-
-			for (int y = drawEnd + 1; y < HEIGHT; y++) {
-				currentDist = wallDistLUT[y - HALF_HEIGHT] * FINAL_ASPECT;
-
-				double weight = (currentDist) / (perpWallDist);
-
-				double currentFloorX = weight * floorXWall + (1.0 - weight) * pos.x;
-				double currentFloorY = weight * floorYWall + (1.0 - weight) * pos.y;
-
-				floortex = world.getFloorAt((int) currentFloorX, (int) currentFloorY);
-				ceilingtex = world.getCeilingAt((int) currentFloorX, (int) currentFloorY);
-
-				int floorTexX;
-				int floorTexY;
-				floorTexX = (int) (currentFloorX * floortex.SIZE) % floortex.SIZE;
-				floorTexY = (int) (currentFloorY * floortex.SIZE) % floortex.SIZE;
-
-				int ceilTexX;
-				int ceilTexY;
-				if (floortex.SIZE == ceilingtex.SIZE) {
-					ceilTexX = floorTexX;
-					ceilTexY = floorTexY;
-				} else {
-					ceilTexX = (int) (currentFloorX * ceilingtex.SIZE) % ceilingtex.SIZE;
-					ceilTexY = (int) (currentFloorY * ceilingtex.SIZE) % ceilingtex.SIZE;
+			
+			double texelsPerRow = (height * (double) yTiles) / lineHeight;
+			double start = (drawStart - wallTop) * texelsPerRow;
+			
+			if ((height & (height - 1)) == 0) {
+				// Overflow doesn't matter, since only the low bits are used
+				int mask = height - 1;
+				int texPos = (int) Math.round(start * 65536);
+				int step = (int) Math.round(texelsPerRow * 65536);
+				
+				for (int y = drawStart; y < drawEnd; y++) {
+					columnScreen[column + y] = RenderUtils.darken(columns[texColumn + ((texPos >>> 16) & mask)], amount);
+					texPos += step;
 				}
-
-				int color = (floortex.pixels[floortex.SIZE * floorTexY + floorTexX]);
+			} else {
+				int end = height << 16;
+				int texPos = (int) Math.round((start % height) * 65536);
+				int step = (int) Math.round((texelsPerRow % height) * 65536);
 				
-				int ceilColor = (ceilingtex.pixels[ceilingtex.SIZE * ceilTexY + ceilTexX]);
-
-				//img.setRGB(x, y, shade((float) currentDist, color));
-				screen[x + y * WIDTH] = shade((float) currentDist, color);
-				//img.setRGB(x, HEIGHT - y, shade((float) currentDist, ceilColor));
-				screen[x + (HEIGHT - y) * WIDTH] = shade((float) currentDist, ceilColor);
+				for (int y = drawStart; y < drawEnd; y++) {
+					if (texPos >= end) {
+						texPos -= end;
+					}
+					
+					columnScreen[column + y] = RenderUtils.darken(columns[texColumn + (texPos >>> 16)], amount);
+					texPos += step;
+				}
 			}
 		}
 	}
 	
 	private int shade(float distance, int color) {
-		float darkenBy;
-
-		switch (shadeType) {
-			case LINEAR:
-				float normValue = distance / FULL_FOG_DISTANCE;
-				
-				darkenBy = (normValue >= 1 ? 1 : normValue) * SHADE_THRESHOLD;
-				break;
-			
-			case QUADRATIC:
-				float _x = distance >= FULL_FOG_DISTANCE ? FULL_FOG_DISTANCE : distance;
-				float a = SHADE_THRESHOLD / 100.0f;
-				float b = 2 * FULL_FOG_DISTANCE;
-				darkenBy = (-(a * _x) * (_x - b));
-				break;
-			
-			case NONE:
-			default:
-				darkenBy = 0;
-		}
-		
-		int red = (color >> 16) & 0xFF;
-		int green = (color >> 8) & 0xFF;
-		int blue = color & 0xFF;
-		
-		red -= (red - darkenBy >= 0) ? darkenBy : red;
-		green -= (green - darkenBy >= 0) ? darkenBy : green;
-		blue -= (blue - darkenBy >= 0) ? darkenBy : blue;
-		
-		color = (red << 16) | (green << 8) | blue;
-		
-		return color;
+		return fogTable.shade(distance, color);
 	}
 
 	public enum ShadeType {
@@ -1092,6 +1691,17 @@ public final class Raycaster extends JPanel {
 
 	public void setShadeType(ShadeType type) {
 		shadeType = type;
+		updateFogTable();
+	}
+	
+	/**
+	 * Rebuilds the fog table if <code>shadeType</code> was changed. This is called
+	 * once per frame because <code>shadeType</code> can also be set directly.
+	 */
+	private void updateFogTable() {
+		if (fogTable.type != shadeType) {
+			fogTable = new FogTable(shadeType, FULL_FOG_DISTANCE, SHADE_THRESHOLD);
+		}
 	}
 	
 	// positive z points up
@@ -1115,7 +1725,7 @@ public final class Raycaster extends JPanel {
 		Triangle viewPlane = new Triangle(plane0, plane2, plane1);
 
 		for (Vector3 location : modelQueue) {
-			Block block = world.getBlockAt((int) location.x, (int) location.z);
+			Block block = world.drawnBlockAt((int) location.x, (int) location.z);
 			
 			for (Triangle t : block.model.triangles) {
 				Vector3 v0 = t.v0.plus(location);
@@ -1244,7 +1854,7 @@ public final class Raycaster extends JPanel {
 		final float zTranslate = (FINAL_ASPECT - 1) / 2;
 
 		for (Vector3 location : modelQueue) {
-			Block block = world.getBlockAt((int) location.x, (int) location.y);
+			Block block = world.drawnBlockAt((int) location.x, (int) location.y);
 
 			for (Triangle t : block.model.triangles) {
 				// These three Vectors are the triangle's vertices in model space
@@ -1596,8 +2206,12 @@ public final class Raycaster extends JPanel {
 					float distance = distance(intersected, cameraPos);
 					int col = color;
 					
-					if (distance < zbuf2[x + y * WIDTH]) {
-						zbuf2[x + y * WIDTH] = distance;
+					int depthIndex = x + y * WIDTH;
+					float depth = depthStamps[depthIndex] == depthGeneration ? zbuf2[depthIndex] : (float) zbuf[x];
+					
+					if (distance < depth) {
+						zbuf2[depthIndex] = distance;
+						depthStamps[depthIndex] = depthGeneration;
 
 						if (!uv0Null && true3DTexturesEnabled) {
 							scale2(uv0, weights[0]);
@@ -1746,16 +2360,163 @@ public final class Raycaster extends JPanel {
 		Vector3 camera;
 		int darkenBy;
 		
+		// What drawPixel() needs from the triangle being drawn
+		private int color;
+		private GeneralTexture texture;
+		private final float[] uv = new float[6];
+		private float d00, d01, d11, invDenom;
+		
+		/*
+		 * Setup for rasterizeLine(), worked out once per triangle in set(): the first
+		 * vertex, the plane normal (the same as Triangle.getNormal()), the two edge
+		 * vectors, and -(normal . (camera - first vertex)), which is the part of the
+		 * ray/plane intersection that doesn't change from pixel to pixel.
+		 */
+		private float p0x, p0y, p0z;
+		private float nx, ny, nz;
+		private float planeOffset;
+		private float e0x, e0y, e0z;
+		private float e1x, e1y, e1z;
+		
 		public void set(Vector2 _v0, Vector2 _v1, Vector2 _v2, Triangle _triangle, Vector3 _v03, Vector3 _v13, Vector3 _v23, Vector3 _camera) {
 			v0 = _v0;
 			v1 = _v1;
 			v2 = _v2;
-			triangle = _triangle;
-			darkenBy = triangle.darkenBy;
 			v03 = _v03;
 			v13 = _v13;
 			v23 = _v23;
+			set(_triangle, _camera);
+		}
+		
+		/**
+		 * Sets up everything that <code>perspectiveCorrectScanlineRaster()</code>
+		 * needs. The screen space vertices are not set.
+		 *
+		 * @param _triangle
+		 *            triangle in world space
+		 * @param _camera
+		 *            camera position in world space
+		 */
+		public void set(Triangle _triangle, Vector3 _camera) {
+			triangle = _triangle;
+			darkenBy = Math.max(0, triangle.darkenBy);
+			camera = _camera;
+			
+			color = triangle.color;
+			texture = null;
+			
+			if (triangle.uv0 != null) {
+				texture = triangle.texture;
+				uv[0] = triangle.uv0.x;
+				uv[1] = triangle.uv0.y;
+				uv[2] = triangle.uv1.x;
+				uv[3] = triangle.uv1.y;
+				uv[4] = triangle.uv2.x;
+				uv[5] = triangle.uv2.y;
+			}
+			
+			e0x = triangle.bv0.x;
+			e0y = triangle.bv0.y;
+			e0z = triangle.bv0.z;
+			e1x = triangle.bv1.x;
+			e1y = triangle.bv1.y;
+			e1z = triangle.bv1.z;
+			d00 = triangle.d00;
+			d01 = triangle.d01;
+			d11 = triangle.d11;
+			invDenom = triangle.invDenom;
+			
+			Vector3 p0 = triangle.v0;
+			Vector3 p1 = triangle.v1;
+			Vector3 p2 = triangle.v2;
+			
+			setPlane(p0.x, p0.y, p0.z, p1.x, p1.y, p1.z, p2.x, p2.y, p2.z);
+		}
+		
+		/**
+		 * Sets up one triangle of a model, like <code>set(Triangle, Vector3)</code> but
+		 * reading everything straight out of the model's cell setup and Mesh. Only the
+		 * parts that depend on the camera are worked out here.
+		 *
+		 * @param cell
+		 *            world space setup of the model
+		 * @param index
+		 *            index of the triangle in the model's Mesh
+		 * @param _camera
+		 *            camera position in world space
+		 */
+		public void set(ModelCellSetup cell, int index, Vector3 _camera) {
+			Mesh mesh = cell.mesh;
+			
+			triangle = null;
+			darkenBy = cell.darkenBy[index];
 			camera = _camera;
+			
+			color = mesh.colors[index];
+			int textureId = mesh.textureIds[index];
+			texture = (textureId == -1) ? null : mesh.textures[textureId];
+			System.arraycopy(mesh.uvs, index * 6, uv, 0, 6);
+			
+			float[] edges = cell.edges;
+			int e = index * 6;
+			e0x = edges[e];
+			e0y = edges[e + 1];
+			e0z = edges[e + 2];
+			e1x = edges[e + 3];
+			e1y = edges[e + 4];
+			e1z = edges[e + 5];
+			
+			float[] setup = mesh.setup;
+			int s = index * Mesh.SETUP_SIZE;
+			d00 = setup[s + 6];
+			d01 = setup[s + 7];
+			d11 = setup[s + 8];
+			invDenom = setup[s + 9];
+			
+			float[] planeNormals = cell.planeNormals;
+			nx = planeNormals[index * 3];
+			ny = planeNormals[index * 3 + 1];
+			nz = planeNormals[index * 3 + 2];
+			
+			float[] vertices = cell.vertices;
+			int p0 = mesh.indices[index * 3] * 3;
+			
+			setCameraOffset(vertices[p0], vertices[p0 + 1], vertices[p0 + 2]);
+		}
+		
+		/**
+		 * Works out the triangle's plane relative to the camera. The edge vectors must
+		 * already be set.
+		 */
+		private void setPlane(float p0x, float p0y, float p0z, float p1x, float p1y, float p1z, float p2x, float p2y,
+				float p2z) {
+			float u0 = p1x - p0x;
+			float u1 = p1y - p0y;
+			float u2 = p1z - p0z;
+			float w0 = p2x - p0x;
+			float w1 = p2y - p0y;
+			float w2 = p2z - p0z;
+			
+			nx = (u1 * w2) - (u2 * w1);
+			ny = (u2 * w0) - (u0 * w2);
+			nz = (u0 * w1) - (u1 * w0);
+			
+			setCameraOffset(p0x, p0y, p0z);
+		}
+		
+		/**
+		 * Sets the triangle's first vertex and works out the camera's offset from its
+		 * plane. The plane normal must already be set.
+		 */
+		private void setCameraOffset(float _p0x, float _p0y, float _p0z) {
+			p0x = _p0x;
+			p0y = _p0y;
+			p0z = _p0z;
+			
+			float ax = camera.x - p0x;
+			float ay = camera.y - p0y;
+			float az = camera.z - p0z;
+			planeOffset = -((nx * ax) + (ny * ay) + (nz * az));
 		}
 		
 		private class Rect {
@@ -1773,57 +2534,129 @@ public final class Raycaster extends JPanel {
 			}
 		}
 		
-		private void perspectiveCorrectScanlineRaster() {
-			int minX = (int) Math.min(v0.x, Math.min(v1.x, v2.x));
-			int maxX = (int) Math.max(v0.x, Math.max(v1.x, v2.x));
-			
-			int minY = (int) Math.min(v0.y, Math.min(v1.y, v2.y));
-			int maxY = (int) Math.max(v0.y, Math.max(v1.y, v2.y));
-			
-			if (minY < 0) {
-				minY = 0;
-			} else if (minY >= HUD_TRUE_HEIGHT) {
-				return;
-			}
-			
-			if (maxY >= HUD_TRUE_HEIGHT) {
-				maxY = HUD_TRUE_HEIGHT-1;
-			} else if (maxY < 0) {
-				return;
+		/**
+		 * Rasterizes the part of the triangle that falls in the given rectangle of the
+		 * screen. The rectangle must already be on the screen and inside the
+		 * triangle's screen bounding box.
+		 *
+		 * @param clipMinX
+		 *            first column of the rectangle
+		 * @param clipMaxX
+		 *            last column of the rectangle
+		 * @param clipMinY
+		 *            first row of the rectangle
+		 * @param clipMaxY
+		 *            last row of the rectangle
+		 */
+		private void perspectiveCorrectScanlineRaster(int clipMinX, int clipMaxX, int clipMinY, int clipMaxY) {
+			for (int y = clipMinY; y <= clipMaxY; y++) {
+				rasterizeLine(y, clipMinX, clipMaxX);
 			}
+		}
+		
+		/**
+		 * Draws the pixels of one row of the screen that fall inside the triangle and
+		 * pass the depth test. Every pixel goes through the same float ray/plane
+		 * intersection, barycentric test and distance as <code>tryDraw()</code>, in
+		 * the same order, so the same pixels are drawn with the same colors. Only the
+		 * Vectors and Line that <code>tryDraw()</code> allocates for every pixel are
+		 * gone.
+		 *
+		 * @param y
+		 *            row to draw
+		 * @param minX
+		 *            first column to test
+		 * @param maxX
+		 *            last column to test
+		 */
+		private void rasterizeLine(int y, int minX, int maxX) {
+			final float epsilon = 0.000001f;
 			
-			if (minX < 0) {
-				minX = 0;
-			} else if (minX >= WIDTH) {
-				return;
-			}
+			float cx = camera.x;
+			float cy = camera.y;
+			float cz = camera.z;
 			
-			if (maxX >= WIDTH) {
-				maxX = WIDTH-1;
-			} else if (maxX < 0) {
-				return;
-			}
+			// The view ray is from the point on the view plane that a pixel shows to the
+			// camera, as in RenderUtils.linePlaneIntersection()
+			float zNorm = 1 - (y / (float) HEIGHT);
+			float uz = cz - zNorm;
 			
-			for (int y = minY; y <= maxY; y++) {
-				rasterizeLine(y,minX,maxX);
-			}
-		}
-		
-		private void rasterizeLine(int y, int minX, int maxX) {			
 			boolean drawn = false;
 			for (int x = minX; x <= maxX; x++) {
-				Vector2 s0 = new Vector2(x,y);
+				boolean inside = false;
 				
-				if (tryDraw(s0)) {
-					drawn = true;
-				} else {
-					if (drawn) {
-						return;
+				float xNorm = (2 * (float) x) / ((float) WIDTH) - 1.0f;
+				float ux = cx - ((dir.x + plane.x * xNorm) + cx);
+				float uy = cy - ((dir.y + plane.y * xNorm) + cy);
+				
+				float dot = (nx * ux) + (ny * uy) + (nz * uz);
+				
+				if (Math.abs(dot) > epsilon) {
+					float fac = planeOffset / dot;
+					
+					if (fac <= 0) {
+						float hitX = cx + ux * fac;
+						float hitY = cy + uy * fac;
+						float hitZ = cz + uz * fac;
+						
+						float toHitX = hitX - p0x;
+						float toHitY = hitY - p0y;
+						float toHitZ = hitZ - p0z;
+						float d20 = (toHitX * e0x) + (toHitY * e0y) + (toHitZ * e0z);
+						float d21 = (toHitX * e1x) + (toHitY * e1y) + (toHitZ * e1z);
+						
+						float w1 = (d11 * d20 - d01 * d21) * invDenom;
+						float w2 = (d00 * d21 - d01 * d20) * invDenom;
+						float w0 = 1.0f - w1 - w2;
+						
+						if (!(w1 < 0 || w2 < 0 || w0 < 0)) {
+							inside = true;
+							
+							float distance = (float) Math.sqrt(((hitX - cx) * (hitX - cx)) + ((hitY - cy) * (hitY - cy))
+									+ ((hitZ - cz) * (hitZ - cz)));
+							
+							if (distance < depthAt(x, y)) {
+								drawPixel(x, y, distance, w0, w1, w2);
+							}
+						}
 					}
 				}
+				
+				if (inside) {
+					drawn = true;
+				} else if (drawn) {
+					return;
+				}
 			}
 		}
 		
+		private void drawPixel(int x, int y, float distance, float w0, float w1, float w2) {
+			setDepth(x, y, distance);
+			
+			int color = this.color;
+			
+			if (texture != null && true3DTexturesEnabled) {
+				float u = uv[0] * w0 + uv[2] * w1 + uv[4] * w2;
+				float v = uv[1] * w0 + uv[3] * w1 + uv[5] * w2;
+				
+				int texX = (int) (u * texture.width);
+				int texY = (int) (v * texture.height);
+				
+				int index = texX + texY * texture.width;
+				
+				if (index < texture.pixels.length) {
+					color = texture.pixels[index];
+				}
+			}
+			
+			// Darkening by the Triangle's shade and then by fog is the same as darkening
+			// once by both
+			int amount = Math.min(darkenBy + fogTable.darkenBy(distance), 255);
+			
+			//img.setRGB(x, y, shade(distance, color));
+			screen[x + y * WIDTH] = RenderUtils.darken(color, amount);
+		}
+		
 		private List<Rect> subdivide(int subdivisions, List<Rect> rects) {
 			if (subdivisions <= 0) {
 				return rects;
@@ -1915,8 +2748,8 @@ public final class Raycaster extends JPanel {
 				if (weights != null) {
 					float distance = Vector3.distance(intersected, camera);
 
-					if (distance < zbuf2[x + y * WIDTH]) {
-						zbuf2[x + y * WIDTH] = distance;
+					if (distance < depthAt(x, y)) {
+						setDepth(x, y, distance);
 
 						int color = triangle.color;
 
@@ -1937,18 +2770,12 @@ public final class Raycaster extends JPanel {
 							}
 						}
 						
-						int red = (color >> 16) & 0xFF;
-						int green = (color >> 8) & 0xFF;
-						int blue = color & 0xFF;
-						
-						red -= (red - darkenBy >= 0) ? darkenBy : red;
-						green -= (green - darkenBy >= 0) ? darkenBy : green;
-						blue -= (blue - darkenBy >= 0) ? darkenBy : blue;
-						
-						color = (red << 16) | (green << 8) | blue;
+						// Darkening by the Triangle's shade and then by fog is the same as darkening
+						// once by both
+						int amount = Math.min(darkenBy + fogTable.darkenBy(distance), 255);
 
 						//img.setRGB(x, y, shade(distance, color));
-						screen[x + y * WIDTH] = shade(distance,color);
+						screen[x + y * WIDTH] = RenderUtils.darken(color, amount);
 					}
 					
 					return true;
@@ -2013,7 +2840,7 @@ public final class Raycaster extends JPanel {
 			int startY = (int) ySorted.get(0).v2.y;
 			int endY = (int) ySorted.get(2).v2.y;
 			
-			int darkenBy = triangle.darkenBy;
+			int darkenBy = Math.max(0, triangle.darkenBy);
 			
 			for (int y = startY; y <= endY; y++) {
 				if (y >= 0 && y < HUD_TRUE_HEIGHT) {
@@ -2030,8 +2857,8 @@ public final class Raycaster extends JPanel {
 								if (weights != null) {
 									float distance = Vector3.distance(intersected, camera);
 
-									if (distance < zbuf2[x + y * WIDTH]) {
-										zbuf2[x + y * WIDTH] = distance;
+									if (distance < depthAt(x, y)) {
+										setDepth(x, y, distance);
 
 										int color = triangle.color;
 
@@ -2052,18 +2879,10 @@ public final class Raycaster extends JPanel {
 											}
 										}
 										
-										int red = (color >> 16) & 0xFF;
-										int green = (color >> 8) & 0xFF;
-										int blue = color & 0xFF;
-										
-										red -= (red - darkenBy >= 0) ? darkenBy : red;
-										green -= (green - darkenBy >= 0) ? darkenBy : green;
-										blue -= (blue - darkenBy >= 0) ? darkenBy : blue;
-										
-										color = (red << 16) | (green << 8) | blue;
+										int amount = Math.min(darkenBy + fogTable.darkenBy(distance), 255);
 
 										//img.setRGB(x, y, shade(distance, color));
-										screen[x + y * WIDTH] = shade(distance,color);
+										screen[x + y * WIDTH] = RenderUtils.darken(color, amount);
 									}
 								}
 							}
@@ -2072,127 +2891,602 @@ public final class Raycaster extends JPanel {
 				}
 			}
 		}
-
-		private Vector3 computeBarycentricWeights(Vector3 v) {
-			Vector3 v0 = triangle.bv0;
-			Vector3 v1 = triangle.bv1;
-			Vector3 v2 = v.minus(triangle.v0);
-			float d00 = triangle.d00;
-			float d01 = triangle.d01;
-			float d11 = triangle.d11;
-			float d20 = Vector3.dot(v2, v0);
-			float d21 = Vector3.dot(v2, v1);
-			float invDenom = triangle.invDenom;
-
-			float w1 = (d11 * d20 - d01 * d21) * invDenom;
-
-			if (w1 < 0) {
-				return null;
-			}
-
-			float w2 = (d00 * d21 - d01 * d20) * invDenom;
-
-			if (w2 < 0) {
-				return null;
+
+		private Vector3 computeBarycentricWeights(Vector3 v) {
+			Vector3 v0 = triangle.bv0;
+			Vector3 v1 = triangle.bv1;
+			Vector3 v2 = v.minus(triangle.v0);
+			float d00 = triangle.d00;
+			float d01 = triangle.d01;
+			float d11 = triangle.d11;
+			float d20 = Vector3.dot(v2, v0);
+			float d21 = Vector3.dot(v2, v1);
+			float invDenom = triangle.invDenom;
+
+			float w1 = (d11 * d20 - d01 * d21) * invDenom;
+
+			if (w1 < 0) {
+				return null;
+			}
+
+			float w2 = (d00 * d21 - d01 * d20) * invDenom;
+
+			if (w2 < 0) {
+				return null;
+			}
+
+			float w0 = 1.0f - w1 - w2;
+
+			if (w0 < 0) {
+				return null;
+			} else {
+				return new Vector3(w0, w1, w2);
+			}
+		}
+	}
+	
+	private boolean isInFoV(Vector3 v0, Vector3 fovLeft, Vector3 fovRight, Vector3 camera) {
+		Vector2 origin = camera.discardZ();
+		Vector2 rightEndp = fovRight.discardZ();
+		Vector2 leftEndp = fovLeft.discardZ();
+		Vector2 testpoint = v0.discardZ();
+
+		boolean leftOfRightRay = RenderUtils.isLeftOfRay(origin, rightEndp, testpoint);
+		boolean rightOfLeftRay = !RenderUtils.isLeftOfRay(origin, leftEndp, testpoint);
+
+		return leftOfRightRay && rightOfLeftRay;
+	}
+	
+	private GPURasterizer gpuRasterizer = new GPURasterizer();
+	
+	/**
+	 * A triangle that has been set up for rasterization and is waiting in one or
+	 * more screen tile bins. Instances are reused from frame to frame.
+	 *
+	 * @author Joe Desmond
+	 */
+	private static class ModelTriangle {
+		ModelCellSetup cell;
+		int index;
+		Vector3 camera;
+		int minX;
+		int maxX;
+		int minY;
+		int maxY;
+	}
+	
+	/**
+	 * Everything about the model in one cell of the map that doesn't depend on the
+	 * camera: its vertices in world space, its bounding sphere, and the edge
+	 * vectors, plane normal and shade of every triangle. A static model never
+	 * moves, so this is worked out the first time its cell is seen and kept until
+	 * the cell's Mesh changes. An instance's setup is also worked out again when
+	 * its angle or height changes.
+	 *
+	 * @author Joe Desmond
+	 */
+	private static final class ModelCellSetup {
+		/*
+		 * What the setup was made from
+		 */
+		Mesh mesh;
+		float zTranslate;
+		float angle;
+		float height;
+		
+		/**
+		 * Vertex positions in world space, packed as x, y, z
+		 */
+		float[] vertices;
+		
+		/*
+		 * Center of the bounding sphere in world space
+		 */
+		float centerX;
+		float centerY;
+		float centerZ;
+		
+		/**
+		 * <code>Mesh.normals</code>, turned with the model
+		 */
+		float[] normals;
+		
+		/**
+		 * Normal of every triangle's plane, worked out from the world space vertices
+		 * and packed as x, y, z
+		 */
+		float[] planeNormals;
+		
+		/**
+		 * The two edge vectors of every triangle, turned with the model and packed as
+		 * in <code>Mesh.setup</code>
+		 */
+		float[] edges;
+		int[] darkenBy;
+		
+		private boolean isFor(Mesh _mesh, float _zTranslate, float _angle, float _height) {
+			return mesh == _mesh && zTranslate == _zTranslate && angle == _angle && height == _height;
+		}
+	}
+	
+	/**
+	 * Setup for every cell of <code>modelCellSetupWorld</code> that has had a model
+	 * drawn in it, indexed by <code>x + y * width</code>
+	 */
+	private ModelCellSetup[] modelCellSetups = new ModelCellSetup[0];
+	private WorldMap modelCellSetupWorld;
+	
+	/**
+	 * How many model triangles each culling stage threw away in the last frame, and
+	 * how many were left to draw. When a whole model is culled, all of its
+	 * triangles are counted. The counts are updated while a frame is rendered, so
+	 * they should be read between frames.
+	 *
+	 * @author Joe Desmond
+	 */
+	public static final class ModelCullCounts {
+		/**
+		 * Triangles of models too far away to be seen
+		 */
+		public int distance;
+		
+		/**
+		 * Triangles of models whose bounding spheres are outside the field of view
+		 */
+		public int boundingSphere;
+		
+		/**
+		 * Triangles facing away from the camera
+		 */
+		public int backface;
+		
+		/**
+		 * Triangles entirely outside one edge of the field of view
+		 */
+		public int fieldOfView;
+		
+		/**
+		 * Triangles entirely behind the near plane
+		 */
+		public int viewPlane;
+		
+		/**
+		 * Triangles that cross the near plane and were clipped to it. These are not
+		 * culled, so they are also counted by one of the other counts.
+		 */
+		public int clipped;
+		
+		/**
+		 * Triangles whose bounding boxes are off the screen
+		 */
+		public int offScreen;
+		
+		/**
+		 * Triangles (or models) that are behind every wall they could be drawn over
+		 */
+		public int occluded;
+		
+		/**
+		 * Triangles queued to be rasterized
+		 */
+		public int queued;
+		
+		private void reset() {
+			distance = boundingSphere = backface = fieldOfView = viewPlane = clipped = offScreen = occluded = queued = 0;
+		}
+	}
+	
+	public final ModelCullCounts modelCullCounts = new ModelCullCounts();
+	
+	private final List<ModelTriangle> modelTriangles = new ArrayList<ModelTriangle>();
+	private int modelTriangleCount = 0;
+	private int modelTileSize;
+	private int modelTilesX;
+	private int modelTileCount;
+	/**
+	 * For every screen tile, the indices (into <code>modelTriangles</code>) of the
+	 * triangles that touch it, in the order they were queued
+	 */
+	private int[][] modelTileBins;
+	private int[] modelTileBinSizes;
+	private final RenderJob modelPass = this::renderModelTile;
+	
+	private void createModelTiles() {
+		modelTileSize = Math.max(1, GameConstants.TRUE_3D_TILE_SIZE);
+		modelTilesX = (WIDTH + modelTileSize - 1) / modelTileSize;
+		int modelTilesY = (HEIGHT + modelTileSize - 1) / modelTileSize;
+		modelTileCount = modelTilesX * modelTilesY;
+		
+		modelTileBins = new int[modelTileCount][16];
+		modelTileBinSizes = new int[modelTileCount];
+		
+		int levels = 1;
+		for (int size = WIDTH; size > 1; size = (size + 1) / 2) {
+			levels++;
+		}
+		
+		wallDepthPyramid = new float[levels][];
+		for (int level = 0, size = WIDTH; level < levels; level++, size = (size + 1) / 2) {
+			wallDepthPyramid[level] = new float[size];
+		}
+	}
+	
+	/*
+	 * The farthest wall distance over runs of screen columns. Level 0 has one entry
+	 * per column, and every entry above it is the farther of two entries in the
+	 * level below. Nothing drawn in a column can show if it is not closer than the
+	 * wall there, so anything at least as far away as the farthest wall over its
+	 * columns can't be seen.
+	 */
+	private float[][] wallDepthPyramid;
+	
+	/**
+	 * Fills <code>wallDepthPyramid</code> from <code>zbuf</code>. This must be
+	 * called after the column pass.
+	 */
+	private void buildWallDepthPyramid() {
+		float[] columns = wallDepthPyramid[0];
+		
+		for (int x = 0; x < WIDTH; x++) {
+			columns[x] = (float) zbuf[x];
+		}
+		
+		for (int level = 1; level < wallDepthPyramid.length; level++) {
+			float[] below = wallDepthPyramid[level - 1];
+			float[] depths = wallDepthPyramid[level];
+			
+			for (int i = 0; i < depths.length; i++) {
+				int first = i * 2;
+				
+				depths[i] = first + 1 < below.length ? Math.max(below[first], below[first + 1]) : below[first];
+			}
+		}
+	}
+	
+	/**
+	 * Returns a distance at least as far as the farthest wall in columns
+	 * <code>minX</code> through <code>maxX</code>. A coarser level of the pyramid is
+	 * used for wider ranges, so this only reads a few entries.
+	 *
+	 * @param minX
+	 *            first column, on the screen
+	 * @param maxX
+	 *            last column, on the screen
+	 * @return farthest wall distance over the columns
+	 */
+	private float farthestWallDepth(int minX, int maxX) {
+		int level = 0;
+		
+		while ((maxX >> level) - (minX >> level) > 3) {
+			level++;
+		}
+		
+		float[] depths = wallDepthPyramid[level];
+		float farthest = 0;
+		
+		for (int i = minX >> level; i <= maxX >> level; i++) {
+			farthest = Math.max(farthest, depths[i]);
+		}
+		
+		return farthest;
+	}
+	
+	/**
+	 * Adds a triangle to every screen tile bin that its bounding box touches. The
+	 * triangle is not rasterized until <code>renderModelTiles()</code> is called.
+	 * The bounding box is only used to decide which pixels to test, and can
+	 * reach past the edges of the screen.
+	 */
+	private void queueModelTriangle(int screenMinX, int screenMaxX, int screenMinY, int screenMaxY, ModelCellSetup cell,
+			int triangle, Vector3 cameraPos) {
+		int minX = Math.max(screenMinX, 0);
+		int maxX = Math.min(screenMaxX, WIDTH - 1);
+		
+		int minY = Math.max(screenMinY, 0);
+		int maxY = Math.min(screenMaxY, HUD_TRUE_HEIGHT - 1);
+		
+		if (minX > maxX || minY > maxY) {
+			modelCullCounts.offScreen++;
+			return;
+		}
+		
+		// Closest that any point of the triangle can be, from its bounding box
+		int[] indices = cell.mesh.indices;
+		float[] vertices = cell.vertices;
+		int p0 = indices[triangle * 3] * 3;
+		int p1 = indices[triangle * 3 + 1] * 3;
+		int p2 = indices[triangle * 3 + 2] * 3;
+		
+		float dx = distanceOutside(cameraPos.x, vertices[p0], vertices[p1], vertices[p2]);
+		float dy = distanceOutside(cameraPos.y, vertices[p0 + 1], vertices[p1 + 1], vertices[p2 + 1]);
+		float dz = distanceOutside(cameraPos.z, vertices[p0 + 2], vertices[p1 + 2], vertices[p2 + 2]);
+		
+		if (isBehindWalls((float) Math.sqrt(dx * dx + dy * dy + dz * dz), minX, maxX)) {
+			modelCullCounts.occluded++;
+			return;
+		}
+		
+		modelCullCounts.queued++;
+		
+		if (modelTriangleCount == modelTriangles.size()) {
+			modelTriangles.add(new ModelTriangle());
+		}
+		
+		int index = modelTriangleCount++;
+		ModelTriangle queued = modelTriangles.get(index);
+		queued.cell = cell;
+		queued.index = triangle;
+		queued.camera = cameraPos;
+		queued.minX = minX;
+		queued.maxX = maxX;
+		queued.minY = minY;
+		queued.maxY = maxY;
+		
+		for (int tileY = minY / modelTileSize; tileY <= maxY / modelTileSize; tileY++) {
+			for (int tileX = minX / modelTileSize; tileX <= maxX / modelTileSize; tileX++) {
+				int tile = tileX + tileY * modelTilesX;
+				int size = modelTileBinSizes[tile];
+				
+				if (size == modelTileBins[tile].length) {
+					modelTileBins[tile] = Arrays.copyOf(modelTileBins[tile], size * 2);
+				}
+				
+				modelTileBins[tile][size] = index;
+				modelTileBinSizes[tile] = size + 1;
+			}
+		}
+	}
+	
+	/**
+	 * Queues a triangle that crosses the near plane. Only the part of it in front
+	 * of the near plane needs to be drawn, so the triangle is clipped to the plane,
+	 * which leaves three or four corners, and its bounding box is found from
+	 * those. The rasterizer tests every pixel against the whole triangle, so the
+	 * clipped corners are only used for the bounding box.
+	 */
+	private void queueClippedModelTriangle(ModelCellSetup cell, int triangle, int base, Vector3 cameraPos) {
+		int[] indices = cell.mesh.indices;
+		float[] vertices = cell.vertices;
+		
+		int minX = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		
+		for (int j = 0; j < 3; j++) {
+			int a = indices[triangle * 3 + j];
+			int b = indices[triangle * 3 + (j + 1) % 3];
+			float depthA = projectedDepth[base + a];
+			float depthB = projectedDepth[base + b];
+			boolean inFrontA = depthA >= NEAR_PLANE_DEPTH;
+			
+			if (inFrontA) {
+				minX = Math.min(minX, projectedX[base + a]);
+				maxX = Math.max(maxX, projectedX[base + a]);
+				minY = Math.min(minY, projectedY[base + a]);
+				maxY = Math.max(maxY, projectedY[base + a]);
 			}
-
-			float w0 = 1.0f - w1 - w2;
-
-			if (w0 < 0) {
-				return null;
-			} else {
-				return new Vector3(w0, w1, w2);
+			
+			// Where the edge crosses the near plane
+			if (inFrontA != (depthB >= NEAR_PLANE_DEPTH)) {
+				float t = (NEAR_PLANE_DEPTH - depthA) / (depthB - depthA);
+				
+				float relX = (vertices[a * 3] + t * (vertices[b * 3] - vertices[a * 3])) - cameraPos.x;
+				float relY = (vertices[a * 3 + 1] + t * (vertices[b * 3 + 1] - vertices[a * 3 + 1])) - cameraPos.y;
+				float relZ = (vertices[a * 3 + 2] + t * (vertices[b * 3 + 2] - vertices[a * 3 + 2])) - cameraPos.z;
+				
+				int x = screenXAt(1 / NEAR_PLANE_DEPTH, relX, relY);
+				int y = screenYAt(1 / NEAR_PLANE_DEPTH, relZ);
+				
+				minX = Math.min(minX, x);
+				maxX = Math.max(maxX, x);
+				minY = Math.min(minY, y);
+				maxY = Math.max(maxY, y);
 			}
 		}
+		
+		modelCullCounts.clipped++;
+		queueModelTriangle(minX, maxX, minY, maxY, cell, triangle, cameraPos);
 	}
 	
-	private boolean isInFoV(Vector3 v0, Vector3 fovLeft, Vector3 fovRight, Vector3 camera) {
-		Vector2 origin = camera.discardZ();
-		Vector2 rightEndp = fovRight.discardZ();
-		Vector2 leftEndp = fovLeft.discardZ();
-		Vector2 testpoint = v0.discardZ();
-
-		boolean leftOfRightRay = RenderUtils.isLeftOfRay(origin, rightEndp, testpoint);
-		boolean rightOfLeftRay = !RenderUtils.isLeftOfRay(origin, leftEndp, testpoint);
-
-		return leftOfRightRay && rightOfLeftRay;
+	/**
+	 * Rasterizes every queued triangle on the render threads, one screen tile per
+	 * task. Each thread only draws inside its tile, and draws the tile's triangles
+	 * in the order they were queued, so the result is the same as drawing all the
+	 * triangles one after another.
+	 */
+	private void renderModelTiles() {
+		if (modelTriangleCount > 0) {
+			runInParallel(modelPass, modelTileCount);
+		}
+		
+		Arrays.fill(modelTileBinSizes, 0);
+		
+		// Don't hold on to this frame's cells
+		for (int i = 0; i < modelTriangleCount; i++) {
+			ModelTriangle queued = modelTriangles.get(i);
+			queued.cell = null;
+			queued.camera = null;
+		}
+		modelTriangleCount = 0;
 	}
 	
-	private Rasterizer2 rasterizer2 = new Rasterizer2();
-	private GPURasterizer gpuRasterizer = new GPURasterizer();
+	/**
+	 * Returns how far <code>value</code> is outside the range covered by
+	 * <code>a</code>, <code>b</code>, and <code>c</code>, or 0 if it is inside.
+	 */
+	private static float distanceOutside(float value, float a, float b, float c) {
+		float min = Math.min(a, Math.min(b, c));
+		float max = Math.max(a, Math.max(b, c));
+		
+		return value < min ? min - value : (value > max ? value - max : 0);
+	}
+	
+	/**
+	 * Returns true if something no closer than <code>nearest</code> would be
+	 * hidden behind the walls in every column from <code>minX</code> to
+	 * <code>maxX</code>. Leaves a little room for rounding in the per-pixel depth
+	 * test.
+	 */
+	private boolean isBehindWalls(float nearest, int minX, int maxX) {
+		return nearest * 0.9999f >= farthestWallDepth(minX, maxX);
+	}
+	
+	private void renderModelTile(ThreadRenderer renderer, int tile) {
+		int size = modelTileBinSizes[tile];
+		
+		if (size == 0) {
+			return;
+		}
+		
+		int tileMinX = (tile % modelTilesX) * modelTileSize;
+		int tileMinY = (tile / modelTilesX) * modelTileSize;
+		int tileMaxX = Math.min(tileMinX + modelTileSize, WIDTH) - 1;
+		int tileMaxY = Math.min(tileMinY + modelTileSize, HUD_TRUE_HEIGHT) - 1;
+		
+		int[] bin = modelTileBins[tile];
+		Rasterizer2 rasterizer = renderer.rasterizer;
+		
+		for (int i = 0; i < size; i++) {
+			ModelTriangle queued = modelTriangles.get(bin[i]);
+			
+			rasterizer.set(queued.cell, queued.index, queued.camera);
+			rasterizer.perspectiveCorrectScanlineRaster(Math.max(queued.minX, tileMinX), Math.min(queued.maxX, tileMaxX),
+					Math.max(queued.minY, tileMinY), Math.min(queued.maxY, tileMaxY));
+		}
+	}
 	
 	// x and y correspond to world map axes; z is vertical axis; positive z points
 	// up
 	// (right handed system)
 	private void renderAllVisibleModelsWithoutMatrices() {
-		Map<Vector3, Vector3> renderedVertices = new HashMap<Vector3, Vector3>();
+		Vector3 cameraPos = new Vector3(camera.pos.x, camera.pos.y, 0.5f);
 		
-		// These three Vectors define the plane through which the player views the
-		// world, in world space
-		Vector3 plane0 = new Vector3(camera.pos.x + camera.dir.x + camera.plane.x,
-				camera.pos.y + camera.dir.y + camera.plane.y, 0.0f);
-		Vector3 plane1 = new Vector3(camera.pos.x + camera.dir.x + camera.plane.x,
-				camera.pos.y + camera.dir.y + camera.plane.y, 1.0f);
-		Vector3 plane2 = new Vector3(camera.pos.x + camera.dir.x - camera.plane.x,
-				camera.pos.y + camera.dir.y - camera.plane.y, 0.0f);
+		float zTranslate = (FINAL_ASPECT - 1) / 2;
 		
-		// plane2 is the left edge of the screen; plane0 is the right edge of the screen
+		modelVertexCount = 0;
+		modelCullCounts.reset();
+		buildWallDepthPyramid();
 		
-		Vector3 cameraPos = new Vector3(camera.pos.x, camera.pos.y, 0.5f);
-		Vector3 cameraLeft = new Vector3(camera.pos.x - camera.plane.x, camera.pos.y - camera.plane.y, 0);
-
-		Vector3 leftFoV = new Vector3(camera.pos.x + camera.dir.x - camera.plane.x,
-				camera.pos.y + camera.dir.y - camera.plane.y, 0.5f);
-		Vector3 rightFoV = new Vector3(camera.pos.x + camera.dir.x + camera.plane.x,
-				camera.pos.y + camera.dir.y + camera.plane.y, 0.5f);
+		// Past this distance a model can't be seen: either it's too far away, or the
+		// fog turns it and everything behind it black
+		float cullDistance = Math.min(GameConstants.TRUE_3D_MAX_RENDER_DISTANCE, fogTable.distanceForDarkenBy(255));
 		
-		Triangle viewPlane = new Triangle(plane0, plane1, plane2);
+		// Edges of the field of view, relative to the camera
+		float leftX = camera.dir.x - camera.plane.x;
+		float leftY = camera.dir.y - camera.plane.y;
+		float rightX = camera.dir.x + camera.plane.x;
+		float rightY = camera.dir.y + camera.plane.y;
+		float leftLength = (float) Math.sqrt(leftX * leftX + leftY * leftY);
+		float rightLength = (float) Math.sqrt(rightX * rightX + rightY * rightY);
 		
-		float zTranslate = (FINAL_ASPECT - 1) / 2;
+		if (modelCellSetupWorld != world || modelCellSetups.length != world.width * world.height) {
+			modelCellSetupWorld = world;
+			modelCellSetups = new ModelCellSetup[world.width * world.height];
+		}
 		
 		for (Vector3 location : modelQueue) {
-			Block block = world.getBlockAt((int) location.x, (int) location.y);
+			int cellX = (int) location.x;
+			int cellY = (int) location.y;
+			Block block = world.drawnBlockAt(cellX, cellY);
+			Model model = block.model;
+			Mesh mesh = model.getMesh();
+			int[] indices = mesh.indices;
 			
-			for (Triangle t : block.model.triangles) {
-				
-				// These three Vectors are the triangle's vertices in model space
-				Vector3 _v0 = new Vector3(t.v0.x, t.v0.y, t.v0.z);
-				Vector3 _v1 = new Vector3(t.v1.x, t.v1.y, t.v1.z);
-				Vector3 _v2 = new Vector3(t.v2.x, t.v2.y, t.v2.z);
+			// An instance is turned about its pivot and raised. The angle and height are
+			// read once, since the instance may be animated while it is drawn.
+			float angle = 0;
+			float height = 0;
+			
+			if (model instanceof ModelInstance) {
+				ModelInstance instance = (ModelInstance) model;
+				angle = instance.angle;
+				height = instance.height;
+			}
+			
+			int cellIndex = cellX + cellY * world.width;
+			ModelCellSetup cell = modelCellSetups[cellIndex];
+			
+			if (cell == null) {
+				cell = new ModelCellSetup();
+				modelCellSetups[cellIndex] = cell;
+				setUpModelCell(cell, mesh, location, zTranslate, angle, height);
+			} else if (!cell.isFor(mesh, zTranslate, angle, height)) {
+				setUpModelCell(cell, mesh, location, zTranslate, angle, height);
+			}
+			
+			// Bounding sphere, relative to the camera
+			float centerX = cell.centerX - cameraPos.x;
+			float centerY = cell.centerY - cameraPos.y;
+			float centerZ = cell.centerZ - cameraPos.z;
+			float nearest = (float) Math.sqrt(centerX * centerX + centerY * centerY + centerZ * centerZ) - mesh.radius;
+			
+			if (nearest >= cullDistance) {
+				modelCullCounts.distance += mesh.triangleCount;
+				continue;
+			}
+			
+			// Entirely to the right of the right edge, or to the left of the left edge
+			if (rightX * centerY - rightY * centerX < -mesh.radius * rightLength
+					|| leftX * centerY - leftY * centerX > mesh.radius * leftLength) {
+				modelCullCounts.boundingSphere += mesh.triangleCount;
+				continue;
+			}
+			
+			if (isModelBehindWalls(centerX, centerY, mesh.radius, nearest)) {
+				modelCullCounts.occluded += mesh.triangleCount;
+				continue;
+			}
+			
+			// From inside a Mesh its back faces are the ones that can be seen
+			boolean cullBackfaces = mesh.backfaceCullable && nearest > 0;
+			float[] normals = cell.normals;
+			float[] vertices = cell.vertices;
+			
+			int base = modelVertexCount;
+			
+			projectVertices(vertices);
+			
+			for (int i = 0; i < mesh.triangleCount; i++) {
+				int i0 = base + indices[i * 3];
+				int i1 = base + indices[i * 3 + 1];
+				int i2 = base + indices[i * 3 + 2];
 				
-				// The vertices are scaled to fit with the final aspect ratio
-				_v0.z -= zTranslate;
-				_v1.z -= zTranslate;
-				_v2.z -= zTranslate;
+				if (cullBackfaces) {
+					int p0 = indices[i * 3] * 3;
+					float toCameraX = cameraPos.x - vertices[p0];
+					float toCameraY = cameraPos.y - vertices[p0 + 1];
+					float toCameraZ = cameraPos.z - vertices[p0 + 2];
+					
+					if (normals[i * 3] * toCameraX + normals[i * 3 + 1] * toCameraY + normals[i * 3 + 2] * toCameraZ < 0) {
+						modelCullCounts.backface++;
+						continue;
+					}
+				}
 				
-				// These three Vectors are the triangle's vertices, translated to world space
-				Vector3 v0 = location.plus(_v0);
-				Vector3 v1 = location.plus(_v1);
-				Vector3 v2 = location.plus(_v2);
-
-				Triangle translatedTriangle = new Triangle(v0, v1, v2, t.color, t.specular, t.bv0, t.bv1, t.d00, t.d01, t.d11,
-						t.invDenom, t.shadeVal, t.xWeight, t.darkenBy).setUVCoords(t.uv0, t.uv1, t.uv2).setTexture(t.texture);
+				int flags0 = projectedFlags[i0];
+				int flags1 = projectedFlags[i1];
+				int flags2 = projectedFlags[i2];
+				int outside = flags0 & flags1 & flags2;
 				
-				if (!(isInFoV(v0, leftFoV, rightFoV, cameraPos) || isInFoV(v1, leftFoV, rightFoV, cameraPos)
-						|| isInFoV(v2, leftFoV, rightFoV, cameraPos))) {
+				if ((outside & (PROJECTED_RIGHT_OF_FOV | PROJECTED_LEFT_OF_FOV)) != 0) {
+					modelCullCounts.fieldOfView++;
 					continue;
 				}
 				
-				Vector3 i0 = getOrCalculateAndStore(renderedVertices, cameraPos, v0, viewPlane);
-				Vector3 i1 = getOrCalculateAndStore(renderedVertices, cameraPos, v1, viewPlane);
-				Vector3 i2 = getOrCalculateAndStore(renderedVertices, cameraPos, v2, viewPlane);
-				
-				if (i0 == null || i1 == null || i2 == null) {
+				if ((outside & PROJECTED_BEHIND_NEAR_PLANE) != 0) {
+					modelCullCounts.viewPlane++;
 					continue;
 				}
 				
-				Vector2 s0 = locateOnScreen(i0, plane2, plane0);
-				Vector2 s1 = locateOnScreen(i1, plane2, plane0);
-				Vector2 s2 = locateOnScreen(i2, plane2, plane0);
-				
-				
-				rasterizer2.set(s0, s1, s2, translatedTriangle, v0, v1, v2, cameraPos);
-				rasterizer2.perspectiveCorrectScanlineRaster();
+				if (((flags0 | flags1 | flags2) & PROJECTED_BEHIND_NEAR_PLANE) != 0) {
+					queueClippedModelTriangle(cell, i, base, cameraPos);
+				} else {
+					queueModelTriangle(Math.min(projectedX[i0], Math.min(projectedX[i1], projectedX[i2])),
+							Math.max(projectedX[i0], Math.max(projectedX[i1], projectedX[i2])),
+							Math.min(projectedY[i0], Math.min(projectedY[i1], projectedY[i2])),
+							Math.max(projectedY[i0], Math.max(projectedY[i1], projectedY[i2])), cell, i, cameraPos);
+				}
 				
 				
 				//Rasterization with the GPU
@@ -2246,56 +3540,355 @@ public final class Raycaster extends JPanel {
 				*/
 			}
 		}
+		
+		renderModelTiles();
 	}
 	
-	private boolean isBehindPlayer(Vector3 _v0, Vector3 _v1, Vector3 _v2, Vector3 _plane0, Vector3 _plane1) {
-		Vector2 v0 = _v0.discardZ();
-		Vector2 v1 = _v1.discardZ();
-		Vector2 v2 = _v2.discardZ();
-		Vector2 plane0 = _plane0.discardZ();
-		Vector2 plane1 = _plane1.discardZ();
+	/**
+	 * Works out the world space setup for the model in one cell. The setup's arrays
+	 * are reused if they are big enough, so an animated instance doesn't allocate
+	 * anything when its angle or height changes.
+	 *
+	 * @param cell
+	 *            setup to fill in
+	 * @param mesh
+	 *            the model's Mesh
+	 * @param location
+	 *            position of the model's cell
+	 * @param zTranslate
+	 *            amount to move every vertex down to fit the final aspect ratio
+	 * @param angle
+	 *            angle to turn the model by about the {@link ModelInstance} pivot
+	 * @param height
+	 *            height to add to every vertex
+	 */
+	private static void setUpModelCell(ModelCellSetup cell, Mesh mesh, Vector3 location, float zTranslate, float angle,
+			float height) {
+		cell.mesh = mesh;
+		cell.zTranslate = zTranslate;
+		cell.angle = angle;
+		cell.height = height;
 		
-		boolean first = RenderUtils.isLeftOfRay(plane1, plane0, v0);
-		boolean second = RenderUtils.isLeftOfRay(plane1, plane0, v1);
-		boolean third = RenderUtils.isLeftOfRay(plane1, plane0, v2);
+		boolean turned = angle != 0;
+		float cos = (float) Math.cos(angle);
+		float sin = (float) Math.sin(angle);
 		
-		return first && second && third;
+		int vertexCount = mesh.vertexCount();
+		int triangleCount = mesh.triangleCount;
+		
+		if (cell.vertices == null || cell.vertices.length != vertexCount * 3) {
+			cell.vertices = new float[vertexCount * 3];
+		}
+		
+		if (cell.darkenBy == null || cell.darkenBy.length != triangleCount) {
+			cell.normals = new float[triangleCount * 3];
+			cell.planeNormals = new float[triangleCount * 3];
+			cell.edges = new float[triangleCount * 6];
+			cell.darkenBy = new int[triangleCount];
+		}
+		
+		float[] vertices = cell.vertices;
+		
+		for (int i = 0; i < vertexCount; i++) {
+			float modelX = mesh.vertices[i * 3];
+			float modelY = mesh.vertices[i * 3 + 1];
+			
+			if (turned) {
+				modelX = turnX(mesh.vertices[i * 3], mesh.vertices[i * 3 + 1], cos, sin);
+				modelY = turnY(mesh.vertices[i * 3], mesh.vertices[i * 3 + 1], cos, sin);
+			}
+			
+			vertices[i * 3] = location.x + modelX;
+			vertices[i * 3 + 1] = location.y + modelY;
+			vertices[i * 3 + 2] = location.z + ((mesh.vertices[i * 3 + 2] + height) - zTranslate);
+		}
+		
+		float meshCenterX = mesh.centerX;
+		float meshCenterY = mesh.centerY;
+		
+		if (turned) {
+			meshCenterX = turnX(mesh.centerX, mesh.centerY, cos, sin);
+			meshCenterY = turnY(mesh.centerX, mesh.centerY, cos, sin);
+		}
+		
+		cell.centerX = location.x + meshCenterX;
+		cell.centerY = location.y + meshCenterY;
+		cell.centerZ = location.z + ((mesh.centerZ + height) - zTranslate);
+		
+		float[] setup = mesh.setup;
+		
+		for (int i = 0; i < triangleCount; i++) {
+			float normalX = mesh.normals[i * 3];
+			float normalY = mesh.normals[i * 3 + 1];
+			
+			int s = i * Mesh.SETUP_SIZE;
+			float e0x = setup[s];
+			float e0y = setup[s + 1];
+			float e1x = setup[s + 3];
+			float e1y = setup[s + 4];
+			int darkenBy = mesh.darkenBy[i];
+			
+			if (turned) {
+				normalX = mesh.normals[i * 3] * cos - mesh.normals[i * 3 + 1] * sin;
+				normalY = mesh.normals[i * 3] * sin + mesh.normals[i * 3 + 1] * cos;
+				
+				e0x = setup[s] * cos - setup[s + 1] * sin;
+				e0y = setup[s] * sin + setup[s + 1] * cos;
+				e1x = setup[s + 3] * cos - setup[s + 4] * sin;
+				e1y = setup[s + 3] * sin + setup[s + 4] * cos;
+				
+				// Same as Triangle.computeShadeValue(), with the normal turned. Turning about
+				// the vertical axis leaves its z alone.
+				float xWeight = mesh.xWeights[i];
+				float xCos = mesh.shadeNormals[i * 3] * cos - mesh.shadeNormals[i * 3 + 1] * sin;
+				float zCos = mesh.shadeNormals[i * 3 + 2];
+				float shadeVal = ((xWeight * (xCos + RenderUtils.HALF_PI)) + ((1 - xWeight) * (zCos + RenderUtils.HALF_PI))) / (float) Math.PI;
+				
+				darkenBy = (int) (shadeVal * mesh.shadeThresholds[i]);
+			}
+			
+			cell.normals[i * 3] = normalX;
+			cell.normals[i * 3 + 1] = normalY;
+			cell.normals[i * 3 + 2] = mesh.normals[i * 3 + 2];
+			
+			cell.edges[i * 6] = e0x;
+			cell.edges[i * 6 + 1] = e0y;
+			cell.edges[i * 6 + 2] = setup[s + 2];
+			cell.edges[i * 6 + 3] = e1x;
+			cell.edges[i * 6 + 4] = e1y;
+			cell.edges[i * 6 + 5] = setup[s + 5];
+			cell.darkenBy[i] = Math.max(0, darkenBy);
+			
+			// Same as Rasterizer2.setPlane(), which needs the same rounding
+			int p0 = mesh.indices[i * 3] * 3;
+			int p1 = mesh.indices[i * 3 + 1] * 3;
+			int p2 = mesh.indices[i * 3 + 2] * 3;
+			
+			float u0 = vertices[p1] - vertices[p0];
+			float u1 = vertices[p1 + 1] - vertices[p0 + 1];
+			float u2 = vertices[p1 + 2] - vertices[p0 + 2];
+			float w0 = vertices[p2] - vertices[p0];
+			float w1 = vertices[p2 + 1] - vertices[p0 + 1];
+			float w2 = vertices[p2 + 2] - vertices[p0 + 2];
+			
+			cell.planeNormals[i * 3] = (u1 * w2) - (u2 * w1);
+			cell.planeNormals[i * 3 + 1] = (u2 * w0) - (u0 * w2);
+			cell.planeNormals[i * 3 + 2] = (u0 * w1) - (u1 * w0);
+		}
 	}
 	
-	private Vector2 locateOnScreen(Vector3 i, Vector3 plane0, Vector3 plane1) {
-		int y = (int) ((1 - i.z) * HEIGHT);
-		
-		Vector2 p0 = new Vector2(plane0.x, plane0.y);
-		Vector2 p1 = new Vector2(plane1.x, plane1.y);
+	/**
+	 * Returns the x coordinate of a point in a cell after it has been turned about
+	 * the {@link ModelInstance} pivot.
+	 */
+	private static float turnX(float x, float y, float cos, float sin) {
+		return ModelInstance.PIVOT_X + ((x - ModelInstance.PIVOT_X) * cos - (y - ModelInstance.PIVOT_Y) * sin);
+	}
+	
+	/**
+	 * Returns the y coordinate of a point in a cell after it has been turned about
+	 * the {@link ModelInstance} pivot.
+	 */
+	private static float turnY(float x, float y, float cos, float sin) {
+		return ModelInstance.PIVOT_Y + ((x - ModelInstance.PIVOT_X) * sin + (y - ModelInstance.PIVOT_Y) * cos);
+	}
+	
+	/**
+	 * Returns true if a model's bounding sphere is hidden behind the walls in every
+	 * column it covers. The columns are found from the two lines through the
+	 * camera that just touch the sphere, seen from above.
+	 *
+	 * @param centerX
+	 *            x of the sphere's center, relative to the camera
+	 * @param centerY
+	 *            y of the sphere's center, relative to the camera
+	 * @param radius
+	 *            radius of the sphere
+	 * @param nearest
+	 *            distance from the camera to the closest point of the sphere
+	 * @return true if nothing in the sphere can be seen
+	 */
+	private boolean isModelBehindWalls(float centerX, float centerY, float radius, float nearest) {
+		float distance = (float) Math.sqrt(centerX * centerX + centerY * centerY);
 		
-		Wall wall = new Wall(p0, p1);
-		Vector2 i2 = new Vector2(i.x, i.y);
+		if (nearest <= 0 || distance <= radius) {
+			return false;
+		}
 		
-		float norm = wall.getNorm(i2);
+		float sin = radius / distance;
+		float cos = (float) Math.sqrt(1 - sin * sin);
 		
-		Vector2 leftWallEndp = new Vector2(p0.x + camera.dir.x, p0.y + camera.dir.y);
+		float dirCrossPlane = camera.dir.x * camera.plane.y - camera.dir.y * camera.plane.x;
+		float minXNorm = Float.POSITIVE_INFINITY;
+		float maxXNorm = Float.NEGATIVE_INFINITY;
 		
-		if (RenderUtils.isLeftOfRay(p0, leftWallEndp, i2)) {
-			norm = -norm;
+		for (int side = -1; side <= 1; side += 2) {
+			// The center, turned towards one side until it just touches the sphere
+			float tangentX = centerX * cos - side * centerY * sin;
+			float tangentY = side * centerX * sin + centerY * cos;
+			
+			// tangent = k * (dir + plane * xNorm), which is only in front of the camera
+			// if k > 0
+			float k = (tangentX * camera.plane.y - tangentY * camera.plane.x) / dirCrossPlane;
+			
+			if (k <= 0) {
+				return false;
+			}
+			
+			float xNorm = (camera.dir.x * tangentY - camera.dir.y * tangentX) / (k * dirCrossPlane);
+			minXNorm = Math.min(minXNorm, xNorm);
+			maxXNorm = Math.max(maxXNorm, xNorm);
 		}
 		
-		int x = (int) (norm * WIDTH);
+		int minX = Math.max((int) Math.floor((minXNorm + 1) * WIDTH / 2) - 1, 0);
+		int maxX = Math.min((int) Math.ceil((maxXNorm + 1) * WIDTH / 2) + 1, WIDTH - 1);
 		
-		return new Vector2(x, y);
+		if (minX > maxX) {
+			return false;
+		}
+		
+		return isBehindWalls(nearest, minX, maxX);
 	}
 	
-	private Vector3 getOrCalculateAndStore(Map<Vector3, Vector3> renderedVertices, Vector3 cameraPos, Vector3 v,
-			Triangle viewPlane) {
-		if (renderedVertices.containsKey(v)) {
-			return renderedVertices.get(v);
-		} else {
-			Vector3 i = RenderUtils.linePlaneIntersection(new Line(cameraPos, v), viewPlane);
-
-			renderedVertices.put(v, i);
-			return i;
+	/*
+	 * The results of projectVertices() for every model drawn this frame, one model
+	 * after another. These are reused from frame to frame. A vertex's flags say
+	 * which edges of the view it is outside of; a triangle can only be thrown away
+	 * if all three of its vertices are outside the same edge.
+	 */
+	private static final byte PROJECTED_RIGHT_OF_FOV = 1;
+	private static final byte PROJECTED_LEFT_OF_FOV = 2;
+	private static final byte PROJECTED_BEHIND_NEAR_PLANE = 4;
+	private int modelVertexCount = 0;
+	private byte[] projectedFlags = new byte[0];
+	private float[] projectedDepth = new float[0];
+	private int[] projectedX = new int[0];
+	private int[] projectedY = new int[0];
+	
+	/**
+	 * Distance of the near plane in front of the camera, as a multiple of the
+	 * length of <code>camera.dir</code>. Only vertices in front of it are
+	 * projected; triangles that cross it are clipped to it. Anything between it and
+	 * the camera that could still be on the screen is within this distance of the
+	 * middle of the view, so this can be very small.
+	 */
+	private static final float NEAR_PLANE_DEPTH = 0.001f;
+	
+	/**
+	 * Finds which edges of the view every vertex of a model is outside of, how far
+	 * in front of the camera it is, and, if it is in front of the near plane, where
+	 * it lands on the screen. The results are added after those of the models
+	 * already projected this frame. Each vertex is only projected once, no matter
+	 * how many triangles share it. This does the same work as
+	 * <code>isInFoV()</code> and <code>RenderUtils.linePlaneIntersection()</code>
+	 * with the view plane, but on floats.
+	 *
+	 * @param vertices
+	 *            vertices in world space, packed as x, y, z
+	 */
+	private void projectVertices(float[] vertices) {
+		int base = modelVertexCount;
+		int vertexCount = vertices.length / 3;
+		
+		if (projectedFlags.length < base + vertexCount) {
+			int capacity = Math.max(base + vertexCount, projectedFlags.length * 2);
+			
+			projectedFlags = Arrays.copyOf(projectedFlags, capacity);
+			projectedDepth = Arrays.copyOf(projectedDepth, capacity);
+			projectedX = Arrays.copyOf(projectedX, capacity);
+			projectedY = Arrays.copyOf(projectedY, capacity);
+		}
+		
+		modelVertexCount = base + vertexCount;
+		
+		float posX = camera.pos.x;
+		float posY = camera.pos.y;
+		float posZ = 0.5f;
+		
+		// Edges of the field of view, relative to the camera
+		float leftX = (posX + camera.dir.x - camera.plane.x) - posX;
+		float leftY = (posY + camera.dir.y - camera.plane.y) - posY;
+		float rightX = (posX + camera.dir.x + camera.plane.x) - posX;
+		float rightY = (posY + camera.dir.y + camera.plane.y) - posY;
+		
+		// A vertex at (camera + rel) hits the view plane at (camera + s * rel), where
+		// s = viewDistance / (perp . rel). perp is at right angles to the view plane.
+		// 1 / s is how far in front of the camera the vertex is.
+		float perpX = camera.plane.y;
+		float perpY = -camera.plane.x;
+		float viewDistance = perpX * camera.dir.x + perpY * camera.dir.y;
+		
+		for (int i = 0, v = base; i < vertexCount; i++, v++) {
+			float relX = vertices[i * 3] - posX;
+			float relY = vertices[i * 3 + 1] - posY;
+			float relZ = vertices[i * 3 + 2] - posZ;
+			
+			int flags = 0;
+			
+			if (!(rightX * relY > rightY * relX)) {
+				flags |= PROJECTED_RIGHT_OF_FOV;
+			}
+			
+			if (leftX * relY > leftY * relX) {
+				flags |= PROJECTED_LEFT_OF_FOV;
+			}
+			
+			float perpDotRel = perpX * relX + perpY * relY;
+			float depth = perpDotRel / viewDistance;
+			
+			if (depth >= NEAR_PLANE_DEPTH) {
+				float s = viewDistance / perpDotRel;
+				
+				projectedX[v] = screenXAt(s, relX, relY);
+				projectedY[v] = screenYAt(s, relZ);
+			} else {
+				flags |= PROJECTED_BEHIND_NEAR_PLANE;
+			}
+			
+			projectedDepth[v] = depth;
+			projectedFlags[v] = (byte) flags;
 		}
 	}
 	
+	/**
+	 * Returns the screen column that a point at <code>camera + rel</code> lands in,
+	 * where the point hits the view plane at <code>camera + s * rel</code>. This
+	 * can be far off the screen.
+	 */
+	private int screenXAt(float s, float relX, float relY) {
+		float planeLengthSquared = camera.plane.x * camera.plane.x + camera.plane.y * camera.plane.y;
+		float dirDotPlane = camera.dir.x * camera.plane.x + camera.dir.y * camera.plane.y;
+		
+		// Distance along the view plane from its left edge, where the right edge is 1
+		float norm = (s * (relX * camera.plane.x + relY * camera.plane.y) - dirDotPlane + planeLengthSquared)
+				/ (2 * planeLengthSquared);
+		
+		return (int) (norm * WIDTH);
+	}
+	
+	/**
+	 * Returns the screen row that a point at <code>camera + rel</code> lands in,
+	 * where the point hits the view plane at <code>camera + s * rel</code>. This
+	 * can be far off the screen.
+	 */
+	private int screenYAt(float s, float relZ) {
+		return (int) ((1 - (0.5f + s * relZ)) * HEIGHT);
+	}
+	
+	private boolean isBehindPlayer(Vector3 _v0, Vector3 _v1, Vector3 _v2, Vector3 _plane0, Vector3 _plane1) {
+		Vector2 v0 = _v0.discardZ();
+		Vector2 v1 = _v1.discardZ();
+		Vector2 v2 = _v2.discardZ();
+		Vector2 plane0 = _plane0.discardZ();
+		Vector2 plane1 = _plane1.discardZ();
+		
+		boolean first = RenderUtils.isLeftOfRay(plane1, plane0, v0);
+		boolean second = RenderUtils.isLeftOfRay(plane1, plane0, v1);
+		boolean third = RenderUtils.isLeftOfRay(plane1, plane0, v2);
+		
+		return first && second && third;
+	}
+	
 	@Deprecated
 	private Vector2 findPointOnScreen(Vector3 v) {
 		// x -> x
@@ -2420,8 +4013,8 @@ public final class Raycaster extends JPanel {
 
 								float distance = (w0 * v03Dist) + (w1 * v13Dist) + (w2 * v23Dist);
 
-								if (distance < zbuf2[x + y * WIDTH]) {
-									zbuf2[x + y * WIDTH] = distance;
+								if (distance < depthAt(x, y)) {
+									setDepth(x, y, distance);
 
 									int color = triangle.color;
 
@@ -2557,8 +4150,8 @@ public final class Raycaster extends JPanel {
 							
 							float distance = (w0 * v03Dist) + (w1 * v13Dist) + (w2 * v23Dist);
 							
-							if (distance < zbuf2[x + y * WIDTH]) {
-								zbuf2[x + y * WIDTH] = distance;
+							if (distance < depthAt(x, y)) {
+								setDepth(x, y, distance);
 								
 								int color = triangle.color;
 								
@@ -2692,8 +4285,8 @@ public final class Raycaster extends JPanel {
 				for (int x = xBegin; x < xEnd; x++) {
 					if (x >= 0 && x < WIDTH) {
 						float distance = (distDiff * (x / xDiff)) + leftDist;
-						if (zbuf2[x + y * WIDTH] > distance) {
-							zbuf2[x + y * WIDTH] = distance;
+						if (depthAt(x, y) > distance) {
+							setDepth(x, y, distance);
 							
 							//img.setRGB(x, y, shade(distance, color));
 							screen[x + y * WIDTH] = shade(distance,color);
@@ -2704,15 +4297,6 @@ public final class Raycaster extends JPanel {
 		}
 	}
 	
-	private class LatchRef {
-
-		CountDownLatch latch = new CountDownLatch(0);
-		
-		public void update(int value) {
-			latch = new CountDownLatch(value);
-		}
-	}
-	
 	public void resetCameraAndMap(Camera _camera, WorldMap _worldMap) {
 		camera = _camera;
 		world = _worldMap;
@@ -2733,27 +4317,26 @@ public final class Raycaster extends JPanel {
 			System.exit(0);
 		}
 		
-		executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(rendererCount);
-		System.out.println(executor.getCorePoolSize() + " threads created for thread renderers.");
-		
-		// In case the executor could not make all the threads we wanted
-		rendererCount = executor.getCorePoolSize();
+		if (rendererCount < 1) {
+			rendererCount = 1;
+		}
 		
+		// The thread that asks for a frame renders alongside the workers
 		renderers = new ThreadRenderer[rendererCount];
-		latchref = new LatchRef();
-		
-		int interval = (WIDTH - (WIDTH % rendererCount)) / rendererCount;
+		workers = new RenderWorker[rendererCount - 1];
+		frameBarrier = new Phaser(rendererCount);
 		
-		int step = 0;
-		
-		while (step + interval < WIDTH) {
-			int i = step / interval;
-			
-			renderers[i] = new ThreadRenderer(step, step + interval, i);
-			step += interval;
+		renderers[0] = new ThreadRenderer();
+		for (int i = 1; i < rendererCount; i++) {
+			renderers[i] = new ThreadRenderer();
+			workers[i - 1] = new RenderWorker(renderers[i], i);
+			workers[i - 1].start();
 		}
-
-		renderers[renderers.length - 1] = new ThreadRenderer(step, WIDTH, rendererCount - 1);
+		System.out.println(rendererCount + " threads created for thread renderers.");
+		
+		tileWidth = Math.max(1, Math.min(GameConstants.RAYCAST_TILE_WIDTH, WIDTH));
+		tileCount = (WIDTH + tileWidth - 1) / tileWidth;
+		tileCosts = new long[tileCount];
 	}
 	
 	public void setEntities(List<Entity> _entities) {
@@ -2778,7 +4361,7 @@ public final class Raycaster extends JPanel {
 	}
 
 	public void shutdown() {
-		executor.shutdownNow();
+		frameBarrier.forceTermination();
 		System.out.println("Shutting down all Raycaster threads.");
 	}
 	
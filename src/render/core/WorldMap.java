@@ -1,7 +1,12 @@
 package render.core;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import image.Entity;
 import image.SquareTexture;
@@ -14,69 +19,212 @@ import render.light.cellmaps.FakeBlockCellMap;
 
 /**
  * Represents a map/level containing Sprites and Blocks to be rendered.
+ * <p>
+ * Blocks, floor textures, and ceiling textures are not stored as arrays of
+ * references. Every distinct Block in the map gets a short ID from a palette, and
+ * the map itself is a flat grid of those IDs (indexed by <code>x + y * width</code>)
+ * next to a grid of flags that says whether each cell is visible, solid, custom,
+ * etc. The raycaster can then walk through the map without touching Block
+ * objects it doesn't need. Floor and ceiling textures get the same treatment.
+ * <code>getBlockAt()</code>, <code>getFloorAt()</code>, and
+ * <code>getCeilingAt()</code> still work as before.
+ * <p>
+ * The flags of a cell are taken from its Block when the Block is placed, so a
+ * Block that is changed after being placed should be placed again with
+ * <code>setBlockAt()</code>.
+ * <p>
+ * The grids are what the Raycaster draws, so they only change between frames.
+ * <code>setBlockAt()</code>, <code>setFloorAt()</code>, and
+ * <code>setCeilingAt()</code> can be called from the game thread while a frame
+ * is being drawn: the change is queued, and the getters return it straight
+ * away, but the grids don't change until <code>applyChanges()</code> is called
+ * before the next frame.
  *
  * @author Joe Desmond
  */
 public class WorldMap {
-	
+
 	public static final int LIGHT_RESOLUTION = 100;
-	
+
 	public static final SquareTexture DEFAULT_FLOOR = new SquareTexture("assets/textures/floor32.png", 32);
 	public static final SquareTexture DEFAULT_CEILING = new SquareTexture("assets/textures/ceil32.png", 32);
 
-	private Block[][] blocks;
-	private SquareTexture[][] floorMap;
-	private SquareTexture[][] ceilMap;
+	/**
+	 * Cell flag: the Block in this cell is visible.
+	 */
+	public static final byte VISIBLE = 1;
+	/**
+	 * Cell flag: the Block in this cell is solid.
+	 */
+	public static final byte SOLID = 2;
+	/**
+	 * Cell flag: the Block in this cell is made of custom Walls.
+	 */
+	public static final byte CUSTOM = 4;
+	/**
+	 * Cell flag: the Block in this cell is a Model.
+	 */
+	public static final byte MODEL = 8;
+	/**
+	 * Cell flag: the Block in this cell is {@link Block#DEFLECTOR}.
+	 */
+	public static final byte DEFLECTOR = 16;
+
+	/**
+	 * Palette ID of every cell, indexed by <code>x + y * width</code>
+	 */
+	short[] blockIds;
+	/**
+	 * Flags of every cell, indexed by <code>x + y * width</code>
+	 */
+	byte[] blockFlags;
+	/**
+	 * Every Block in the map, indexed by palette ID. IDs that are not in use are
+	 * null.
+	 */
+	Block[] blockPalette;
+	/**
+	 * How many cells use each palette ID. When a count drops to zero, the ID is
+	 * reused for the next new Block.
+	 */
+	private int[] blockRefCounts;
+	private IdentityHashMap<Block, Integer> blockIdLookup;
+	private ArrayDeque<Integer> freeBlockIds;
+	private int nextBlockId;
+
+	/**
+	 * Palette IDs of the floor texture of every cell, indexed by
+	 * <code>x + y * width</code>
+	 */
+	short[] floorIds;
+	/**
+	 * Palette IDs of the ceiling texture of every cell, indexed by
+	 * <code>x + y * width</code>
+	 */
+	short[] ceilIds;
+	/**
+	 * Every floor and ceiling texture in the map, indexed by palette ID. Textures
+	 * are shared and rarely created, so their IDs are never reused.
+	 */
+	SquareTexture[] texturePalette;
+	private IdentityHashMap<SquareTexture, Integer> textureIdLookup;
+	private int nextTextureId;
+
+	/*
+	 * Changes that haven't been applied to the grids yet, indexed by
+	 * x + y * width. These are only touched while holding this WorldMap's lock.
+	 */
+	private HashMap<Integer, Block> pendingBlocks = new HashMap<Integer, Block>();
+	private HashMap<Integer, SquareTexture> pendingFloors = new HashMap<Integer, SquareTexture>();
+	private HashMap<Integer, SquareTexture> pendingCeilings = new HashMap<Integer, SquareTexture>();
+	private volatile boolean hasPendingChanges = false;
+
 	private CellMap[][] lightmaps;
+	/**
+	 * World space Walls of every custom Block, indexed by <code>x + y * width</code>.
+	 * Cells without a custom Block have null here.
+	 */
+	private CachedWall[][] customWalls;
 	public Light[] lights;
 	public List<Entity> entities = new ArrayList<Entity>();
 	public int width;
 	public int height;
-	
-	public void initializeInPlace(WorldMap other) {
-		blocks = other.blocks;
-		floorMap = other.floorMap;
-		ceilMap = other.ceilMap;
+
+	public synchronized void initializeInPlace(WorldMap other) {
+		blockIds = other.blockIds;
+		blockFlags = other.blockFlags;
+		blockPalette = other.blockPalette;
+		blockRefCounts = other.blockRefCounts;
+		blockIdLookup = other.blockIdLookup;
+		freeBlockIds = other.freeBlockIds;
+		nextBlockId = other.nextBlockId;
+		floorIds = other.floorIds;
+		ceilIds = other.ceilIds;
+		texturePalette = other.texturePalette;
+		textureIdLookup = other.textureIdLookup;
+		nextTextureId = other.nextTextureId;
+		pendingBlocks = other.pendingBlocks;
+		pendingFloors = other.pendingFloors;
+		pendingCeilings = other.pendingCeilings;
+		hasPendingChanges = other.hasPendingChanges;
 		lightmaps = other.lightmaps;
 		lights = other.lights;
 		entities = other.entities;
 		width = other.width;
 		height = other.height;
+		customWalls = other.customWalls;
 	}
-	
+
 	// private Speaker[] speakers;
 
 	public WorldMap(Block[][] _blocks) {
-		blocks = _blocks;
-		floorMap = new SquareTexture[blocks.length][blocks[0].length];
-		ceilMap = new SquareTexture[blocks.length][blocks[0].length];
-		lightmaps = new CellMap[blocks.length][blocks[0].length];
+		height = _blocks.length;
+		width = _blocks[0].length;
+
+		initBlocks(_blocks);
+		initTextures();
+		lightmaps = new CellMap[height][width];
 
 		initDefaultFloorMap();
 		initDefaultCeilingMap();
-
-		height = blocks.length;
-		width = blocks[0].length;
 		// initEmptyLightMaps();
 	}
 
 	public WorldMap(Block[][] _blocks, SquareTexture[][] _floorMap, SquareTexture[][] _ceilMap) {
-		blocks = _blocks;
-		floorMap = _floorMap;
-		ceilMap = _ceilMap;
+		height = _blocks.length;
+		width = _blocks[0].length;
 
-		height = blocks.length;
-		width = blocks[0].length;
+		initBlocks(_blocks);
+		initTextures();
+		setFloorMap(_floorMap);
+		setCeilingMap(_ceilMap);
 		// initEmptyLightMaps();
 	}
 
+	private void initBlocks(Block[][] blocks) {
+		blockIds = new short[width * height];
+		blockFlags = new byte[width * height];
+		blockPalette = new Block[16];
+		blockRefCounts = new int[16];
+		blockIdLookup = new IdentityHashMap<Block, Integer>();
+		freeBlockIds = new ArrayDeque<Integer>();
+		customWalls = new CachedWall[width * height][];
+
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				int index = col + row * width;
+				Block block = blocks[row][col];
+				int id = acquireBlockId(block);
+
+				blockIds[index] = (short) id;
+				blockFlags[index] = flagsOf(block);
+				updateWallCache(col, row, block);
+			}
+		}
+	}
+
+	private void initTextures() {
+		floorIds = new short[width * height];
+		ceilIds = new short[width * height];
+		texturePalette = new SquareTexture[8];
+		textureIdLookup = new IdentityHashMap<SquareTexture, Integer>();
+	}
+
 	public WorldMap setFloorMap(SquareTexture[][] _floorMap) {
-		floorMap = _floorMap;
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				floorIds[col + row * width] = (short) textureIdOf(_floorMap[row][col]);
+			}
+		}
 		return this;
 	}
 
 	public WorldMap setCeilingMap(SquareTexture[][] _ceilMap) {
-		ceilMap = _ceilMap;
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				ceilIds[col + row * width] = (short) textureIdOf(_ceilMap[row][col]);
+			}
+		}
 		return this;
 	}
 
@@ -104,40 +252,150 @@ public class WorldMap {
 	 *            Block to set border to
 	 */
 	public WorldMap setBorder(Block block) {
-		for (int col = 0; col < blocks[0].length; col++) {
-			blocks[0][col] = block;
-			blocks[blocks.length - 1][col] = block;
+		for (int col = 0; col < width; col++) {
+			setBlockAt(col, 0, block);
+			setBlockAt(col, height - 1, block);
 		}
 
-		for (int row = 0; row < blocks.length; row++) {
-			blocks[row][0] = block;
-			blocks[row][blocks[0].length - 1] = block;
+		for (int row = 0; row < height; row++) {
+			setBlockAt(0, row, block);
+			setBlockAt(width - 1, row, block);
 		}
 
 		return this;
 	}
 
-	private void initDefaultFloorMap() {
-		for (int row = 0; row < floorMap.length; row++) {
-			for (int col = 0; col < floorMap[row].length; col++) {
-				floorMap[row][col] = DEFAULT_FLOOR;
+	/**
+	 * Returns the palette ID of <code>block</code> and counts one more cell as
+	 * using it. Blocks that are not in the palette yet are given a free ID.
+	 *
+	 * @param block
+	 *            Block to be placed
+	 * @return palette ID of the Block
+	 */
+	private int acquireBlockId(Block block) {
+		Integer existing = blockIdLookup.get(block);
+		int id;
+
+		if (existing != null) {
+			id = existing;
+		} else {
+			if (!freeBlockIds.isEmpty()) {
+				id = freeBlockIds.pop();
+			} else {
+				if (nextBlockId > Short.MAX_VALUE) {
+					throw new IllegalStateException("A WorldMap can't hold more than " + (Short.MAX_VALUE + 1) + " different Blocks!");
+				}
+
+				id = nextBlockId++;
+
+				if (id == blockPalette.length) {
+					blockPalette = Arrays.copyOf(blockPalette, id * 2);
+					blockRefCounts = Arrays.copyOf(blockRefCounts, id * 2);
+				}
 			}
+
+			blockPalette[id] = block;
+			blockIdLookup.put(block, id);
+		}
+
+		blockRefCounts[id]++;
+		return id;
+	}
+
+	/**
+	 * Counts one less cell as using the palette ID <code>id</code>, and frees the ID
+	 * if no cells are left using it.
+	 *
+	 * @param id
+	 *            palette ID of a Block that was removed from a cell
+	 */
+	private void releaseBlockId(int id) {
+		if (--blockRefCounts[id] == 0) {
+			blockIdLookup.remove(blockPalette[id]);
+			blockPalette[id] = null;
+			freeBlockIds.push(id);
 		}
 	}
 
-	private void initDefaultCeilingMap() {
-		for (int row = 0; row < ceilMap.length; row++) {
-			for (int col = 0; col < ceilMap[row].length; col++) {
-				ceilMap[row][col] = DEFAULT_CEILING;
-			}
+	private static byte flagsOf(Block block) {
+		byte flags = 0;
+
+		if (block == null) {
+			return flags;
+		}
+
+		if (block.isVisible()) {
+			flags |= VISIBLE;
+		}
+
+		if (block.isSolid()) {
+			flags |= SOLID;
+		}
+
+		if (block.isCustom()) {
+			flags |= CUSTOM;
+		}
+
+		if (block.isModel()) {
+			flags |= MODEL;
+		}
+
+		if (block == Block.DEFLECTOR) {
+			flags |= DEFLECTOR;
+		}
+
+		return flags;
+	}
+
+	private int textureIdOf(SquareTexture texture) {
+		Integer existing = textureIdLookup.get(texture);
+
+		if (existing != null) {
+			return existing;
 		}
+
+		if (nextTextureId > Short.MAX_VALUE) {
+			throw new IllegalStateException("A WorldMap can't hold more than " + (Short.MAX_VALUE + 1) + " different floor and ceiling textures!");
+		}
+
+		int id = nextTextureId++;
+
+		if (id == texturePalette.length) {
+			texturePalette = Arrays.copyOf(texturePalette, id * 2);
+		}
+
+		texturePalette[id] = texture;
+		textureIdLookup.put(texture, id);
+		return id;
+	}
+
+	private void updateWallCache(int x, int y, Block block) {
+		if (block == null || !block.isCustom()) {
+			customWalls[x + y * width] = null;
+			return;
+		}
+
+		CachedWall[] walls = new CachedWall[block.walls.length];
+		for (int i = 0; i < walls.length; i++) {
+			walls[i] = new CachedWall(block.walls[i], x, y);
+		}
+		customWalls[x + y * width] = walls;
+	}
+
+	private void initDefaultFloorMap() {
+		Arrays.fill(floorIds, (short) textureIdOf(DEFAULT_FLOOR));
+	}
+
+	private void initDefaultCeilingMap() {
+		Arrays.fill(ceilIds, (short) textureIdOf(DEFAULT_CEILING));
 	}
 
 	@SuppressWarnings("unused")
 	private void initEmptyLightMaps() {
 		for (int row = 0; row < lightmaps.length; row++) {
 			for (int col = 0; col < lightmaps[row].length; col++) {
-				Block block = blocks[row][col];
+				Block block = getBlockAt(col, row);
 
 				if (!block.isSolid() && block != Block.SPACE) {
 					lightmaps[row][col] = new FakeBlockCellMap(col, row, LIGHT_RESOLUTION);
@@ -152,29 +410,182 @@ public class WorldMap {
 		}
 	}
 
-	public void setFloorAt(int x, int y, SquareTexture texture) {
-		floorMap[y][x] = texture;
+	/**
+	 * Queues a change of the floor texture at (x,y). It is drawn from the next
+	 * frame on.
+	 */
+	public synchronized void setFloorAt(int x, int y, SquareTexture texture) {
+		checkBounds(x, y);
+		pendingFloors.put(x + y * width, texture);
+		hasPendingChanges = true;
 	}
-	
-	public void setCeilingAt(int x, int y, SquareTexture texture) {
-		ceilMap[y][x] = texture;
+
+	/**
+	 * Queues a change of the ceiling texture at (x,y). It is drawn from the next
+	 * frame on.
+	 */
+	public synchronized void setCeilingAt(int x, int y, SquareTexture texture) {
+		checkBounds(x, y);
+		pendingCeilings.put(x + y * width, texture);
+		hasPendingChanges = true;
 	}
 
+	/**
+	 * Returns the Block at (x,y), including any change that has been queued but
+	 * not drawn yet.
+	 */
 	public Block getBlockAt(int x, int y) {
-		return blocks[y][x];
+		checkBounds(x, y);
+		int index = x + y * width;
+
+		if (hasPendingChanges) {
+			synchronized (this) {
+				if (pendingBlocks.containsKey(index)) {
+					return pendingBlocks.get(index);
+				}
+
+				return blockPalette[blockIds[index]];
+			}
+		}
+
+		return blockPalette[blockIds[index]];
+	}
+
+	/**
+	 * Returns the Block at (x,y) as it is in the grids, which is what the frame
+	 * being drawn shows. Changes queued since the last <code>applyChanges()</code>
+	 * are left out, so the renderer never sees a cell that doesn't match its
+	 * flags.
+	 */
+	Block drawnBlockAt(int x, int y) {
+		checkBounds(x, y);
+		return blockPalette[blockIds[x + y * width]];
 	}
 
-	public Block setBlockAt(int x, int y, Block block) {
-		Block old = blocks[y][x];
-		blocks[y][x] = block;
+	/**
+	 * Queues a change of the Block at (x,y). It is drawn from the next frame on,
+	 * but <code>getBlockAt()</code> returns it straight away.
+	 *
+	 * @param x
+	 *            x coordinate of the cell
+	 * @param y
+	 *            y coordinate of the cell
+	 * @param block
+	 *            new Block
+	 * @return the Block that was at (x,y)
+	 */
+	public synchronized Block setBlockAt(int x, int y, Block block) {
+		Block old = getBlockAt(x, y);
+
+		pendingBlocks.put(x + y * width, block);
+		hasPendingChanges = true;
 		return old;
 	}
 
+	/**
+	 * Applies every queued change to the grids. A palette ID that no cell uses
+	 * anymore is freed here, and not while a frame could still be reading it. The
+	 * Raycaster calls this before it starts a frame; nothing else may read the
+	 * grids while it runs.
+	 */
+	public void applyChanges() {
+		if (!hasPendingChanges) {
+			return;
+		}
+
+		synchronized (this) {
+			for (Map.Entry<Integer, Block> change : pendingBlocks.entrySet()) {
+				int index = change.getKey();
+				Block block = change.getValue();
+
+				// Acquired first, so that putting a Block back in its own cell doesn't free its ID
+				int id = acquireBlockId(block);
+				releaseBlockId(blockIds[index]);
+
+				blockIds[index] = (short) id;
+				blockFlags[index] = flagsOf(block);
+				updateWallCache(index % width, index / width, block);
+			}
+
+			for (Map.Entry<Integer, SquareTexture> change : pendingFloors.entrySet()) {
+				floorIds[change.getKey()] = (short) textureIdOf(change.getValue());
+			}
+
+			for (Map.Entry<Integer, SquareTexture> change : pendingCeilings.entrySet()) {
+				ceilIds[change.getKey()] = (short) textureIdOf(change.getValue());
+			}
+
+			pendingBlocks.clear();
+			pendingFloors.clear();
+			pendingCeilings.clear();
+			hasPendingChanges = false;
+		}
+	}
+
+	/**
+	 * Returns the Walls of the custom Block at (x,y), already moved into world
+	 * space. The array is shared and should not be modified.
+	 *
+	 * @param x
+	 *            x coordinate of the cell
+	 * @param y
+	 *            y coordinate of the cell
+	 * @return world space Walls, or null if the Block at (x,y) is not custom
+	 */
+	public CachedWall[] getWallsAt(int x, int y) {
+		return customWalls[x + y * width];
+	}
+
+	/**
+	 * Returns the floor texture at (x,y), including any change that has been
+	 * queued but not drawn yet.
+	 */
 	public SquareTexture getFloorAt(int x, int y) {
-		return floorMap[y][x];
+		checkBounds(x, y);
+		int index = x + y * width;
+
+		if (hasPendingChanges) {
+			synchronized (this) {
+				if (pendingFloors.containsKey(index)) {
+					return pendingFloors.get(index);
+				}
+
+				return texturePalette[floorIds[index]];
+			}
+		}
+
+		return texturePalette[floorIds[index]];
 	}
 
+	/**
+	 * Returns the ceiling texture at (x,y), including any change that has been
+	 * queued but not drawn yet.
+	 */
 	public SquareTexture getCeilingAt(int x, int y) {
-		return ceilMap[y][x];
+		checkBounds(x, y);
+		int index = x + y * width;
+
+		if (hasPendingChanges) {
+			synchronized (this) {
+				if (pendingCeilings.containsKey(index)) {
+					return pendingCeilings.get(index);
+				}
+
+				return texturePalette[ceilIds[index]];
+			}
+		}
+
+		return texturePalette[ceilIds[index]];
+	}
+
+	/**
+	 * The grids are flat, so a coordinate that is out of bounds on one axis could
+	 * still land inside the grid. This keeps the old behavior of throwing an
+	 * exception for those coordinates.
+	 */
+	private void checkBounds(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new ArrayIndexOutOfBoundsException("(" + x + ", " + y + ") is not in this WorldMap");
+		}
 	}
 }
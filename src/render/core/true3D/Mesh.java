@@ -0,0 +1,269 @@
+package render.core.true3D;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import image.GeneralTexture;
+import render.math.Triangle;
+import render.math.Vector3;
+
+/**
+ * The triangles of a {@link Model}, flattened into arrays so that the renderer
+ * can read them in order without touching any <code>Triangle</code>,
+ * <code>Vector2</code> or <code>Vector3</code> objects. A Mesh never changes once
+ * it has been made; when the Model changes, it makes a new one.
+ *
+ * @author Joe Desmond
+ */
+public final class Mesh {
+
+	/**
+	 * Number of floats per triangle in <code>setup</code>
+	 */
+	public static final int SETUP_SIZE = 10;
+
+	public final int triangleCount;
+
+	/**
+	 * Distinct vertex positions, packed as x, y, z
+	 */
+	public final float[] vertices;
+
+	/**
+	 * Three indices into <code>vertices</code> per triangle
+	 */
+	public final int[] indices;
+
+	/**
+	 * Texture coordinates, packed as u0, v0, u1, v1, u2, v2 per triangle. Only
+	 * meaningful for textured triangles.
+	 */
+	public final float[] uvs;
+	public final int[] colors;
+
+	/**
+	 * Index into <code>textures</code> for every triangle, or -1 if the triangle
+	 * is not textured
+	 */
+	public final int[] textureIds;
+	public final GeneralTexture[] textures;
+	public final int[] darkenBy;
+
+	/**
+	 * Precomputed barycentric setup, packed as the two edge vectors (x, y, z each)
+	 * followed by d00, d01, d11 and invDenom; see <code>Triangle</code>
+	 */
+	public final float[] setup;
+
+	/*
+	 * What Triangle.computeShadeValue() uses, so that darkenBy can be worked out
+	 * again for a turned copy of the Mesh: the unit normal of every triangle,
+	 * packed as x, y, z, and each triangle's shade threshold and x weight
+	 */
+	public final float[] shadeNormals;
+	public final int[] shadeThresholds;
+	public final float[] xWeights;
+
+	/**
+	 * Face normal of every triangle, packed as x, y, z. If
+	 * <code>backfaceCullable</code> is true, these all point out of the Mesh.
+	 */
+	public final float[] normals;
+
+	/**
+	 * True if the Mesh is closed and all of its triangles are wound the same way,
+	 * so that a triangle facing away from a camera outside the Mesh is always
+	 * hidden behind one facing towards it
+	 */
+	public final boolean backfaceCullable;
+
+	/*
+	 * Bounding sphere of the vertices, in model space
+	 */
+	public final float centerX;
+	public final float centerY;
+	public final float centerZ;
+	public final float radius;
+
+	/**
+	 * Flattens a list of triangles.
+	 *
+	 * @param _vertices
+	 *            distinct vertex positions of the triangles, packed as x, y, z
+	 * @param _indices
+	 *            three indices into <code>_vertices</code> per triangle
+	 * @param triangles
+	 *            the triangles, in the same order as <code>_indices</code>
+	 */
+	public Mesh(float[] _vertices, int[] _indices, List<Triangle> triangles) {
+		triangleCount = triangles.size();
+		vertices = _vertices;
+		indices = _indices;
+
+		uvs = new float[triangleCount * 6];
+		colors = new int[triangleCount];
+		textureIds = new int[triangleCount];
+		darkenBy = new int[triangleCount];
+		setup = new float[triangleCount * SETUP_SIZE];
+		shadeNormals = new float[triangleCount * 3];
+		shadeThresholds = new int[triangleCount];
+		xWeights = new float[triangleCount];
+
+		List<GeneralTexture> palette = new ArrayList<GeneralTexture>();
+
+		for (int i = 0; i < triangleCount; i++) {
+			Triangle t = triangles.get(i);
+
+			colors[i] = t.color;
+			darkenBy[i] = t.darkenBy;
+
+			if (t.uv0 != null && t.texture != null) {
+				int textureId = palette.indexOf(t.texture);
+
+				if (textureId == -1) {
+					textureId = palette.size();
+					palette.add(t.texture);
+				}
+
+				textureIds[i] = textureId;
+
+				uvs[i * 6] = t.uv0.x;
+				uvs[i * 6 + 1] = t.uv0.y;
+				uvs[i * 6 + 2] = t.uv1.x;
+				uvs[i * 6 + 3] = t.uv1.y;
+				uvs[i * 6 + 4] = t.uv2.x;
+				uvs[i * 6 + 5] = t.uv2.y;
+			} else {
+				textureIds[i] = -1;
+			}
+
+			int s = i * SETUP_SIZE;
+			setup[s] = t.bv0.x;
+			setup[s + 1] = t.bv0.y;
+			setup[s + 2] = t.bv0.z;
+			setup[s + 3] = t.bv1.x;
+			setup[s + 4] = t.bv1.y;
+			setup[s + 5] = t.bv1.z;
+			setup[s + 6] = t.d00;
+			setup[s + 7] = t.d01;
+			setup[s + 8] = t.d11;
+			setup[s + 9] = t.invDenom;
+
+			Vector3 shadeNormal = t.getNormal().normalize();
+			shadeNormals[i * 3] = shadeNormal.x;
+			shadeNormals[i * 3 + 1] = shadeNormal.y;
+			shadeNormals[i * 3 + 2] = shadeNormal.z;
+			shadeThresholds[i] = t.shadeThreshold;
+			xWeights[i] = t.xWeight;
+		}
+
+		textures = palette.toArray(new GeneralTexture[palette.size()]);
+
+		// Bounding sphere around the center of the bounding box
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < vertices.length; i += 3) {
+			minX = Math.min(minX, vertices[i]);
+			minY = Math.min(minY, vertices[i + 1]);
+			minZ = Math.min(minZ, vertices[i + 2]);
+			maxX = Math.max(maxX, vertices[i]);
+			maxY = Math.max(maxY, vertices[i + 1]);
+			maxZ = Math.max(maxZ, vertices[i + 2]);
+		}
+
+		if (vertices.length == 0) {
+			centerX = centerY = centerZ = radius = 0;
+		} else {
+			centerX = (minX + maxX) / 2;
+			centerY = (minY + maxY) / 2;
+			centerZ = (minZ + maxZ) / 2;
+
+			float radiusSquared = 0;
+			for (int i = 0; i < vertices.length; i += 3) {
+				float dx = vertices[i] - centerX;
+				float dy = vertices[i + 1] - centerY;
+				float dz = vertices[i + 2] - centerZ;
+				radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+			}
+
+			// A little bigger so that rounding can't leave a vertex outside
+			radius = (float) Math.sqrt(radiusSquared) * 1.0001f + 0.0001f;
+		}
+
+		normals = new float[triangleCount * 3];
+		double volume = 0;
+
+		for (int i = 0; i < triangleCount; i++) {
+			int p0 = indices[i * 3] * 3;
+			int p1 = indices[i * 3 + 1] * 3;
+			int p2 = indices[i * 3 + 2] * 3;
+
+			float ux = vertices[p1] - vertices[p0];
+			float uy = vertices[p1 + 1] - vertices[p0 + 1];
+			float uz = vertices[p1 + 2] - vertices[p0 + 2];
+			float wx = vertices[p2] - vertices[p0];
+			float wy = vertices[p2 + 1] - vertices[p0 + 1];
+			float wz = vertices[p2 + 2] - vertices[p0 + 2];
+
+			normals[i * 3] = uy * wz - uz * wy;
+			normals[i * 3 + 1] = uz * wx - ux * wz;
+			normals[i * 3 + 2] = ux * wy - uy * wx;
+
+			// Six times the signed volume of the tetrahedron between the triangle and the
+			// center; these add up to the volume of the Mesh, which is positive if the
+			// normals point out
+			volume += normals[i * 3] * (vertices[p0] - centerX) + normals[i * 3 + 1] * (vertices[p0 + 1] - centerY)
+					+ normals[i * 3 + 2] * (vertices[p0 + 2] - centerZ);
+		}
+
+		backfaceCullable = triangleCount > 0 && volume != 0 && isClosed(indices, vertexCount());
+
+		if (backfaceCullable && volume < 0) {
+			for (int i = 0; i < normals.length; i++) {
+				normals[i] = -normals[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns true if every edge is shared by exactly two triangles, which use it
+	 * in opposite directions.
+	 */
+	private static boolean isClosed(int[] indices, int vertexCount) {
+		Set<Long> edges = new HashSet<Long>();
+
+		for (int i = 0; i < indices.length; i += 3) {
+			for (int j = 0; j < 3; j++) {
+				long a = indices[i + j];
+				long b = indices[i + (j + 1) % 3];
+
+				if (a == b || !edges.add(a * vertexCount + b)) {
+					return false;
+				}
+			}
+		}
+
+		for (long edge : edges) {
+			long a = edge / vertexCount;
+			long b = edge % vertexCount;
+
+			if (!edges.contains(b * vertexCount + a)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the number of distinct vertices in this Mesh.
+	 *
+	 * @return number of vertices
+	 */
+	public int vertexCount() {
+		return vertices.length / 3;
+	}
+}
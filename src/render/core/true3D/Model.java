@@ -2,15 +2,34 @@ package render.core.true3D;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import render.math.Matrix4;
 import render.math.Triangle;
+import render.math.Vector3;
 import render.math.geometry.Geometric;
 
 public class Model {
 	
 	public List<Triangle> triangles = new ArrayList<Triangle>();
+	
+	/**
+	 * Indexed form of <code>triangles</code>: every distinct vertex position once,
+	 * packed as x, y, z, and three indices into it per triangle, in the same order
+	 * as <code>triangles</code>. Built when first asked for and thrown away whenever
+	 * the triangles change.
+	 */
+	private float[] meshVertices;
+	private int[] meshIndices;
+	
+	/**
+	 * Flattened copy of <code>triangles</code> for the renderer, made from the
+	 * indexed vertices when first asked for. Thrown away whenever the triangles or
+	 * their shading change.
+	 */
+	private Mesh mesh;
 
 	public Model(Triangle... _triangles) {
 		Arrays.stream(_triangles).forEach(triangles::add);
@@ -22,11 +41,13 @@ public class Model {
 
 	public Model add(Geometric g) {
 		Arrays.stream(g.getTriangles()).forEach(triangles::add);
+		invalidateMesh();
 		return this;
 	}
 
 	public Model add(Model m) {
 		triangles.addAll(m.triangles);
+		invalidateMesh();
 		return this;
 	}
 	
@@ -34,6 +55,7 @@ public class Model {
 		for (int i = 0; i < triangles.size(); i++) {
 			operator.operate(triangles.get(i));
 		}
+		invalidateMesh();
 		return this;
 	}
 	
@@ -43,6 +65,7 @@ public class Model {
 			triangles.get(i).setXWeight(xWeight);
 			triangles.get(i).computeShadeValue();
 		}
+		mesh = null;
 		
 		return this;
 	}
@@ -51,6 +74,7 @@ public class Model {
 		for (int i = 0; i < triangles.size(); i++) {
 			triangles.get(i).computeShadeValue();
 		}
+		mesh = null;
 		return this;
 	}
 
@@ -62,7 +86,13 @@ public class Model {
 			temp.add(transformed);
 		}
 
-		return new Model(temp);
+		Model model = new Model(temp);
+		
+		if (hasIndexedVertices()) {
+			model.setIndexedVertices(transformVertices(m, meshVertices), meshIndices);
+		}
+
+		return model;
 	}
 	
 	public void transformAndApply(Matrix4 m) {
@@ -70,5 +100,108 @@ public class Model {
 			Triangle transformed = m.transform(triangles.get(i));
 			triangles.set(i, transformed);
 		}
+		
+		// A Mesh that has already been handed out may still be in use, so the
+		// vertices are transformed into a new array
+		if (hasIndexedVertices()) {
+			meshVertices = transformVertices(m, meshVertices);
+		}
+		mesh = null;
+	}
+
+	/**
+	 * Returns the triangles of this Model as a {@link Mesh}. The same Mesh is
+	 * returned until the Model changes.
+	 *
+	 * @return flattened triangles of this Model
+	 */
+	public Mesh getMesh() {
+		Mesh current = mesh;
+		
+		if (current == null || current.triangleCount != triangles.size()) {
+			if (!hasIndexedVertices()) {
+				buildIndexedVertices();
+			}
+			
+			current = new Mesh(meshVertices, meshIndices, triangles);
+			mesh = current;
+		}
+		
+		return current;
+	}
+
+	/**
+	 * Sets the indexed form of this Model directly, for loaders that already know
+	 * which triangles share vertices. The vertices must be the same positions that
+	 * the triangles use.
+	 *
+	 * @param vertices
+	 *            vertex positions, packed as x, y, z
+	 * @param indices
+	 *            three vertex indices per triangle, in the same order as
+	 *            <code>triangles</code>
+	 */
+	protected void setIndexedVertices(float[] vertices, int[] indices) {
+		meshVertices = vertices;
+		meshIndices = indices;
+		mesh = null;
+	}
+
+	/**
+	 * Throws away the indexed form of this Model so that it will be rebuilt the
+	 * next time it is needed. Call this after changing <code>triangles</code> or
+	 * any of the triangles directly.
+	 */
+	public void invalidateMesh() {
+		meshVertices = null;
+		meshIndices = null;
+		mesh = null;
+	}
+
+	private boolean hasIndexedVertices() {
+		return meshIndices != null && meshIndices.length == triangles.size() * 3;
+	}
+
+	private void buildIndexedVertices() {
+		Map<Vector3, Integer> vertexIndices = new HashMap<Vector3, Integer>();
+		float[] vertices = new float[triangles.size() * 9];
+		int[] indices = new int[triangles.size() * 3];
+		int vertexCount = 0;
+
+		for (int i = 0; i < triangles.size(); i++) {
+			Triangle t = triangles.get(i);
+			Vector3[] corners = {t.v0, t.v1, t.v2};
+
+			for (int j = 0; j < 3; j++) {
+				Vector3 corner = new Vector3(corners[j].x, corners[j].y, corners[j].z);
+				Integer index = vertexIndices.get(corner);
+
+				if (index == null) {
+					index = vertexCount++;
+					vertexIndices.put(corner, index);
+					vertices[index * 3] = corner.x;
+					vertices[index * 3 + 1] = corner.y;
+					vertices[index * 3 + 2] = corner.z;
+				}
+
+				indices[i * 3 + j] = index;
+			}
+		}
+
+		meshVertices = Arrays.copyOf(vertices, vertexCount * 3);
+		meshIndices = indices;
+	}
+
+	private static float[] transformVertices(Matrix4 m, float[] vertices) {
+		float[] transformed = new float[vertices.length];
+		
+		for (int i = 0; i < vertices.length; i += 3) {
+			Vector3 v = m.transform(new Vector3(vertices[i], vertices[i + 1], vertices[i + 2]));
+			transformed[i] = v.x;
+			transformed[i + 1] = v.y;
+			transformed[i + 2] = v.z;
+		}
+		
+		return transformed;
 	}
 }
@@ -0,0 +1,95 @@
+package render.core.true3D;
+
+import java.util.Collections;
+
+import render.math.Matrix4;
+import render.math.geometry.Geometric;
+
+/**
+ * A {@link Model} that draws the geometry of another Model, turned about the
+ * vertical axis through the middle of its cell and raised by some height. Any
+ * number of instances can share one Model, and animating an instance only
+ * changes <code>angle</code> and <code>height</code>; the transform is applied
+ * by the renderer when the instance is drawn.
+ * <p>
+ * An instance sees its source's triangles through a read-only view, and the
+ * methods that would change them throw an
+ * {@link UnsupportedOperationException}, because changing them through one
+ * instance would change the source and every other instance of it. Change the
+ * source instead.
+ *
+ * @author Joe Desmond
+ */
+public class ModelInstance extends Model {
+
+	/**
+	 * Point in the cell that the instance is turned about
+	 */
+	public static final float PIVOT_X = 0.5f;
+	public static final float PIVOT_Y = 0.5f;
+
+	public final Model source;
+
+	/**
+	 * Counterclockwise rotation about the pivot when seen from above, in radians
+	 */
+	public float angle = 0;
+
+	/**
+	 * Height added to every vertex
+	 */
+	public float height = 0;
+
+	public ModelInstance(Model _source) {
+		super(Collections.unmodifiableList(_source.triangles));
+		source = _source;
+	}
+
+	@Override
+	public Mesh getMesh() {
+		return source.getMesh();
+	}
+
+	@Override
+	public Model add(Geometric g) {
+		throw sharedGeometry();
+	}
+
+	@Override
+	public Model add(Model m) {
+		throw sharedGeometry();
+	}
+
+	@Override
+	public Model applyAll(TriangleOperator operator) {
+		throw sharedGeometry();
+	}
+
+	@Override
+	public Model shadeAll(int shadeThreshold, float xWeight) {
+		throw sharedGeometry();
+	}
+
+	@Override
+	public Model computeShadeValues() {
+		throw sharedGeometry();
+	}
+
+	@Override
+	public void transformAndApply(Matrix4 m) {
+		throw sharedGeometry();
+	}
+
+	/**
+	 * Does nothing. An instance has no Mesh of its own; it draws its source's
+	 * Mesh, which is thrown away when the source changes.
+	 */
+	@Override
+	public void invalidateMesh() {
+
+	}
+
+	private UnsupportedOperationException sharedGeometry() {
+		return new UnsupportedOperationException("A ModelInstance shares its source's triangles; change the source Model instead!");
+	}
+}
@@ -54,6 +54,44 @@ public final class RenderUtils {
 		return null;
 	}
 
+	/**
+	 * Same test as {@link #rayHitSegment(Vector2, Vector2, Wall)}, but works on
+	 * primitives and returns how far along the ray the hit is instead of creating a
+	 * Vector2. The hit point is <code>(r0x + t * s1x, r0y + t * s1y)</code>.
+	 *
+	 * @param r0x
+	 *            x of the ray endpoint
+	 * @param r0y
+	 *            y of the ray endpoint
+	 * @param s1x
+	 *            x component of the ray direction
+	 * @param s1y
+	 *            y component of the ray direction
+	 * @param ax
+	 *            x of the first endpoint of the segment
+	 * @param ay
+	 *            y of the first endpoint of the segment
+	 * @param bx
+	 *            x of the second endpoint of the segment
+	 * @param by
+	 *            y of the second endpoint of the segment
+	 * @return t such that the ray hits the segment at <code>r0 + t * s1</code>, or
+	 *         NaN if it doesn't
+	 */
+	public static float rayHitSegment(float r0x, float r0y, float s1x, float s1y, float ax, float ay, float bx, float by) {
+		float s2x = bx - ax;
+		float s2y = by - ay;
+		
+		float s, t;
+		s = (-s1y * (r0x - ax) + s1x * (r0y - ay)) / (-s2x * s1y + s1x * s2y);
+		t = (s2x * (r0y - ay) - s2y * (r0x - ax)) / (-s2x * s1y + s1x * s2y);
+		
+		if (s >= 0 && s <= 1 && t >= 0) {
+			return t;
+		}
+		return Float.NaN;
+	}
+
 	// TODO: do this
 	public static Vector2 rayHitCircle(Vector2 rayStart, Vector2 rayDirection, Pillar circle) {
 		return null;
@@ -139,6 +177,29 @@ public final class RenderUtils {
 		return (red << 16) | (green << 8) | blue;
 	}
 
+	/**
+	 * Subtracts <code>amount</code> from each channel of an RGB color, stopping
+	 * at 0. Gives the same result as subtracting from each channel separately, but
+	 * without branches: red and blue are done together in one int, with a guard bit
+	 * above each channel that is left set only if that channel did not go below 0.
+	 * The alpha channel is dropped.
+	 *
+	 * @param color
+	 *            RGB color
+	 * @param amount
+	 *            amount to subtract from each channel, from 0 to 255
+	 * @return darkened RGB color
+	 */
+	public static int darken(int color, int amount) {
+		int redBlue = ((color & 0xFF00FF) | 0x1000100) - (amount | (amount << 16));
+		int redBlueMask = ((redBlue & 0x1000100) >>> 8) * 0xFF;
+		
+		int green = ((color & 0xFF00) | 0x10000) - (amount << 8);
+		int greenMask = ((green & 0x10000) >>> 8) * 0xFF;
+		
+		return (redBlue & redBlueMask) | (green & greenMask);
+	}
+
 	public static double clamp(float val, float minVal, float maxVal) {
 		if (val < minVal) {
 			return minVal;
@@ -48,6 +48,24 @@ public class Vector2 {
 		return (float) Math.sqrt(((_v0.x - _v1.x) * (_v0.x - _v1.x)) + ((_v0.y - _v1.y) * (_v0.y - _v1.y)));
 	}
 
+	/**
+	 * Same as {@link #distance(Vector2, Vector2)}, but takes the coordinates
+	 * directly so that no Vector2 has to be created.
+	 *
+	 * @param x0
+	 *            x of the first point
+	 * @param y0
+	 *            y of the first point
+	 * @param x1
+	 *            x of the second point
+	 * @param y1
+	 *            y of the second point
+	 * @return Euclidean distance between both points
+	 */
+	public static float distance(float x0, float y0, float x1, float y1) {
+		return (float) Math.sqrt(((x0 - x1) * (x0 - x1)) + ((y0 - y1) * (y0 - y1)));
+	}
+
 	public static float dot(Vector2 v0, Vector2 v1) {
 		return (v0.x * v1.x) + (v0.y * v1.y);
 	}
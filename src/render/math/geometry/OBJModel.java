@@ -5,6 +5,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -52,6 +53,7 @@ public class OBJModel extends Model {
 		List<Vector3> vertices = new ArrayList<Vector3>();
 		List<Vector2> textureVertices = new ArrayList<Vector2>();
 		List<Triangle> faces = new ArrayList<Triangle>();
+		int[] faceIndices = new int[48];
 		Map<String, Material> mtlLib = null;
 		Material currentMaterial = null;
 
@@ -111,6 +113,8 @@ public class OBJModel extends Model {
 						int color = currentMaterial.Kd();
 						
 						Triangle triangle = new Triangle(v0, v1, v2, color);
+						faceIndices = addFaceIndices(faceIndices, faces.size(), (int) (fVertices.x - 1),
+								(int) (fVertices.y - 1), (int) (fVertices.z - 1));
 						faces.add(triangle);
 					}
 				} else {
@@ -143,6 +147,7 @@ public class OBJModel extends Model {
 						Triangle triangle = new Triangle(v0, v1, v2, color).setUVCoords(uv0, uv1, uv2)
 								.setTexture(texture)
 								.computeShadeValue();
+						faceIndices = addFaceIndices(faceIndices, faces.size(), v0index, v1index, v2index);
 						faces.add(triangle);
 					}
 				}
@@ -152,6 +157,49 @@ public class OBJModel extends Model {
 		}
 
 		super.triangles = faces;
+		
+		// The faces already say which vertices they share, but files often repeat a
+		// position once for every face that uses it. Repeated positions are merged so
+		// that the mesh can be recognized as closed.
+		Map<Vector3, Integer> merged = new HashMap<Vector3, Integer>();
+		int[] mergedIndices = new int[vertices.size()];
+		float[] meshVertices = new float[vertices.size() * 3];
+		int vertexCount = 0;
+		
+		for (int i = 0; i < vertices.size(); i++) {
+			Vector3 vertex = vertices.get(i);
+			Integer index = merged.get(vertex);
+			
+			if (index == null) {
+				index = vertexCount++;
+				merged.put(vertex, index);
+				meshVertices[index * 3] = vertex.x;
+				meshVertices[index * 3 + 1] = vertex.y;
+				meshVertices[index * 3 + 2] = vertex.z;
+			}
+			
+			mergedIndices[i] = index;
+		}
+		
+		int[] meshIndices = new int[faces.size() * 3];
+		
+		for (int i = 0; i < meshIndices.length; i++) {
+			meshIndices[i] = mergedIndices[faceIndices[i]];
+		}
+		
+		setIndexedVertices(Arrays.copyOf(meshVertices, vertexCount * 3), meshIndices);
+	}
+	
+	private int[] addFaceIndices(int[] faceIndices, int face, int v0index, int v1index, int v2index) {
+		if (faceIndices.length < (face + 1) * 3) {
+			faceIndices = Arrays.copyOf(faceIndices, faceIndices.length * 2);
+		}
+		
+		faceIndices[face * 3] = v0index;
+		faceIndices[face * 3 + 1] = v1index;
+		faceIndices[face * 3 + 2] = v2index;
+		
+		return faceIndices;
 	}
 
 	private Map<String, Material> loadMaterialLibrary(List<String> mtlLines) {